@@ -0,0 +1,98 @@
+package ro.unibuc.hello.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import ro.unibuc.hello.exception.BadRequestException;
+import ro.unibuc.hello.exception.ControllerAdvisor;
+import ro.unibuc.hello.exception.NotFoundException;
+import ro.unibuc.hello.exception.Problems;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of a 400/404 response as the application produces it: throwing the exception, catching it in
+ * ControllerAdvisor and writing the JSON body. The legacy* variants reproduce the previous path (stack trace,
+ * double-brace HashMap problems, HashMap body) for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ControllerAdvisorBenchmark {
+
+    private ControllerAdvisor controllerAdvisor;
+    private ObjectMapper objectMapper;
+
+    @Setup
+    public void setUp() {
+        controllerAdvisor = new ControllerAdvisor(new SimpleMeterRegistry());
+        objectMapper = new ObjectMapper().findAndRegisterModules().disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    }
+
+    @Benchmark
+    public byte[] notFound() throws JsonProcessingException {
+        try {
+            throw new NotFoundException();
+        }
+        catch (NotFoundException e) {
+            return objectMapper.writeValueAsBytes(controllerAdvisor.handleNotFoundException(e, null).getBody());
+        }
+    }
+
+    @Benchmark
+    public byte[] badRequest() throws JsonProcessingException {
+        try {
+            throw new BadRequestException(Problems.SORT_BAD_ARGUMENT);
+        }
+        catch (BadRequestException e) {
+            return objectMapper.writeValueAsBytes(controllerAdvisor.handleBadRequestException(e, null).getBody());
+        }
+    }
+
+    @Benchmark
+    public byte[] legacyNotFound() throws JsonProcessingException {
+        try {
+            throw new RuntimeException("Not Found");
+        }
+        catch (RuntimeException e) {
+            var body = new HashMap<String, Object>();
+            body.put("timestamp", LocalDateTime.now());
+            body.put("message", e.getMessage());
+            return objectMapper.writeValueAsBytes(body);
+        }
+    }
+
+    @Benchmark
+    public byte[] legacyBadRequest() throws JsonProcessingException {
+        try {
+            throw new LegacyBadRequestException(new HashMap<>() {{
+                put("sort", "bad argument");
+            }});
+        }
+        catch (LegacyBadRequestException e) {
+            var body = new HashMap<String, Object>();
+            body.put("timestamp", LocalDateTime.now());
+            body.put("message", e.problems);
+            return objectMapper.writeValueAsBytes(body);
+        }
+    }
+
+    private static class LegacyBadRequestException extends RuntimeException {
+        final HashMap<String, String> problems;
+
+        LegacyBadRequestException(HashMap<String, String> problems) {
+            super("Bad Request");
+            this.problems = problems;
+        }
+    }
+}
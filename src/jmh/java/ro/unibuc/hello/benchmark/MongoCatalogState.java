@@ -0,0 +1,75 @@
+package ro.unibuc.hello.benchmark;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.utility.DockerImageName;
+import ro.unibuc.hello.HelloApplication;
+import ro.unibuc.hello.controller.ProductController;
+import ro.unibuc.hello.data.ProductEntity;
+import ro.unibuc.hello.data.ProductRepository;
+
+import java.util.ArrayList;
+
+/**
+ * A throwaway Mongo container plus the application context wired to it, seeded with catalogSize products titled
+ * bench-000000, bench-000001, ... The product cache is off so every call reaches Mongo.
+ */
+@State(Scope.Benchmark)
+public class MongoCatalogState {
+
+    private static final int SEED_CHUNK = 1000;
+
+    @Param({"1000", "10000", "100000"})
+    public int catalogSize;
+
+    public ProductController productController;
+    public ProductRepository productRepository;
+
+    private GenericContainer<?> mongo;
+    private ConfigurableApplicationContext context;
+
+    @Setup(Level.Trial)
+    public void start() {
+        mongo = new GenericContainer<>(DockerImageName.parse("mongo:5.0.2")).withExposedPorts(27017);
+        mongo.start();
+
+        context = new SpringApplicationBuilder(HelloApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties(
+                        "mongodb.connection.url=mongodb://" + mongo.getHost() + ":" + mongo.getMappedPort(27017),
+                        "spring.cache.type=none")
+                .run();
+        productController = context.getBean(ProductController.class);
+        productRepository = context.getBean(ProductRepository.class);
+
+        var chunk = new ArrayList<ProductEntity>(SEED_CHUNK);
+        for (int i = 0; i < catalogSize; i++) {
+            chunk.add(new ProductEntity(title(i), "benchmark product " + (i % 97), i % 500));
+            if (chunk.size() == SEED_CHUNK) {
+                productRepository.insertBatch(chunk);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            productRepository.insertBatch(chunk);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+        mongo.stop();
+    }
+
+    public static String title(int i) {
+        return String.format("bench-%06d", i);
+    }
+}
@@ -0,0 +1,91 @@
+package ro.unibuc.hello.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import ro.unibuc.hello.data.ProductEntity;
+import ro.unibuc.hello.dto.ProductDto;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A /products page in each wire format: the server's serialization cost, the consumer's parse cost, and gzip on top
+ * for JSON. Bytes on the wire per format are printed once per trial, since JMH only reports times.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProductFormatBenchmark {
+
+    @Param({"json", "cbor", "smile"})
+    public String format;
+
+    @Param({"100", "1000"})
+    public int products;
+
+    private List<ProductDto> dtos;
+    private ObjectWriter writer;
+    private ObjectReader reader;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        var mapper = switch (format) {
+            case "cbor" -> new ObjectMapper(new CBORFactory());
+            case "smile" -> new ObjectMapper(new SmileFactory());
+            default -> new ObjectMapper();
+        };
+        mapper.registerModule(new ParameterNamesModule());
+
+        dtos = new ArrayList<>(products);
+        for (int i = 0; i < products; i++) {
+            var entity = new ProductEntity(MongoCatalogState.title(i), "benchmark product " + i, i);
+            entity.id = String.format("%024x", i);
+            dtos.add(new ProductDto(entity));
+        }
+        writer = mapper.writerFor(mapper.getTypeFactory().constructCollectionType(List.class, ProductDto.class));
+        reader = mapper.readerFor(mapper.getTypeFactory().constructCollectionType(List.class, ProductEntity.class));
+        encoded = writer.writeValueAsBytes(dtos);
+
+        System.out.printf("%s, %d products: %d bytes, %d gzipped%n", format, products, encoded.length, gzip(encoded).length);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return writer.writeValueAsBytes(dtos);
+    }
+
+    @Benchmark
+    public byte[] serializeAndGzip() throws IOException {
+        return gzip(writer.writeValueAsBytes(dtos));
+    }
+
+    @Benchmark
+    public List<ProductEntity> parse() throws IOException {
+        return reader.readValue(encoded);
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        var out = new ByteArrayOutputStream(bytes.length / 4);
+        try (var gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+}
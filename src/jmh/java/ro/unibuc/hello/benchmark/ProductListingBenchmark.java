@@ -0,0 +1,38 @@
+package ro.unibuc.hello.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import ro.unibuc.hello.dto.ProductDto;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * getAllProducts end to end below the HTTP layer: sort parsing, the Mongo page query and ProductDto mapping, for the
+ * first page and for a page in the middle of the catalog.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProductListingBenchmark {
+
+    private static final int PRODUCTS_ON_PAGE = 50;
+
+    @Param({"", "title_asc", "quantity_desc"})
+    public String sort;
+
+    @Benchmark
+    public List<ProductDto> firstPage(MongoCatalogState catalog) {
+        return catalog.productController.getAllProducts(sort, 0, PRODUCTS_ON_PAGE);
+    }
+
+    @Benchmark
+    public List<ProductDto> middlePage(MongoCatalogState catalog) {
+        return catalog.productController.getAllProducts(sort, catalog.catalogSize / PRODUCTS_ON_PAGE / 2, PRODUCTS_ON_PAGE);
+    }
+}
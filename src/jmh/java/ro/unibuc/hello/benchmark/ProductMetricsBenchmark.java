@@ -0,0 +1,47 @@
+package ro.unibuc.hello.benchmark;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import ro.unibuc.hello.metrics.ProductMetrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request metrics overhead of a getAllProducts call: one counter increment plus the page-size gauge, done the
+ * old way (lookup by name and tags, gauge registered on every call) and through the pre-registered ProductMetrics.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+public class ProductMetricsBenchmark {
+
+    private MeterRegistry lookupRegistry;
+    private ProductMetrics productMetrics;
+
+    @Setup
+    public void setUp() {
+        lookupRegistry = new SimpleMeterRegistry();
+        productMetrics = new ProductMetrics(new SimpleMeterRegistry());
+    }
+
+    @Benchmark
+    public Integer lookupByName() {
+        lookupRegistry.counter("product_get_no_results", "endpoint", "Product").increment();
+        return lookupRegistry.gauge("product_count_number", 50);
+    }
+
+    @Benchmark
+    public long preRegistered() {
+        productMetrics.noResults();
+        return productMetrics.catalogSize();
+    }
+}
@@ -0,0 +1,43 @@
+package ro.unibuc.hello.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import ro.unibuc.hello.data.ProductEntity;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The repository calls behind the single-product endpoints, each against a random seeded title.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProductRepositoryBenchmark {
+
+    @Benchmark
+    public ProductEntity findByTitle(MongoCatalogState catalog) {
+        return catalog.productRepository.findByTitle(randomTitle(catalog));
+    }
+
+    @Benchmark
+    public boolean existsByTitle(MongoCatalogState catalog) {
+        return catalog.productRepository.existsByTitle(randomTitle(catalog));
+    }
+
+    @Benchmark
+    public ProductEntity addStock(MongoCatalogState catalog) {
+        return catalog.productRepository.addStock(randomTitle(catalog), 1);
+    }
+
+    @Benchmark
+    public ProductEntity sellStock(MongoCatalogState catalog) {
+        // Sells may run out on a long run; a refused sell is still the same findAndModify round trip.
+        return catalog.productRepository.sellStock(randomTitle(catalog), 1);
+    }
+
+    private static String randomTitle(MongoCatalogState catalog) {
+        return MongoCatalogState.title(ThreadLocalRandom.current().nextInt(catalog.catalogSize));
+    }
+}
@@ -0,0 +1,63 @@
+package ro.unibuc.hello.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import ro.unibuc.hello.data.ProductEntity;
+import ro.unibuc.hello.dto.ProductDto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Entity to ProductDto mapping and Jackson serialization of the resulting list, the CPU part of every listing response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProductSerializationBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int products;
+
+    private List<ProductEntity> entities;
+    private List<ProductDto> dtos;
+    private ObjectWriter writer;
+
+    @Setup
+    public void setUp() {
+        entities = new ArrayList<>(products);
+        for (int i = 0; i < products; i++) {
+            var entity = new ProductEntity(MongoCatalogState.title(i), "benchmark product " + i, i);
+            entity.id = String.format("%024x", i);
+            entities.add(entity);
+        }
+        dtos = mapToDtos();
+        writer = new ObjectMapper().writer();
+    }
+
+    @Benchmark
+    public List<ProductDto> mapToDtos() {
+        return entities.stream().map(ProductDto::new).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public byte[] serializeDtos() throws JsonProcessingException {
+        return writer.writeValueAsBytes(dtos);
+    }
+
+    @Benchmark
+    public byte[] mapAndSerialize() throws JsonProcessingException {
+        return writer.writeValueAsBytes(mapToDtos());
+    }
+}
@@ -0,0 +1,65 @@
+package ro.unibuc.hello.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import ro.unibuc.hello.stock.StockJournal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Movements per second a write-behind sell can be acknowledged at: one journal append, plus waiting for the group
+ * commit when fsync is on. Compare with ProductRepositoryBenchmark for the cost of a round trip per sell.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(16)
+public class StockJournalBenchmark {
+
+    @Param({"false", "true"})
+    public boolean fsync;
+
+    private Path directory;
+    private StockJournal journal;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("stock-journal-bench");
+        journal = new StockJournal(directory, 16 * 1024 * 1024, fsync);
+        journal.open();
+    }
+
+    // what a successful flush does, so the segments of one iteration do not pile up on disk
+    @TearDown(Level.Iteration)
+    public void acknowledge() {
+        journal.acknowledge(journal.lastSequence());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        journal.close();
+        try (var files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long sell() {
+        var sequence = journal.append("bench-000001", -1);
+        journal.awaitDurable(sequence);
+        return sequence;
+    }
+}
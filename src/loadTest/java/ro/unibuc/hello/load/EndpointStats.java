@@ -0,0 +1,57 @@
+package ro.unibuc.hello.load;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histogram (microseconds) and outcome counts of one endpoint of the load suite.
+ */
+class EndpointStats {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = 60_000_000;
+
+    final String name;
+    final double targetRate;
+
+    private final Histogram histogram = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+    private final AtomicLong ok = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    EndpointStats(String name, double targetRate) {
+        this.name = name;
+        this.targetRate = targetRate;
+    }
+
+    void record(long nanos, boolean success) {
+        histogram.recordValue(Math.min(nanos / 1000, HIGHEST_TRACKABLE_MICROS));
+        if (success) {
+            ok.incrementAndGet();
+        }
+        else {
+            errors.incrementAndGet();
+        }
+    }
+
+    Histogram histogram() {
+        return histogram;
+    }
+
+    long ok() {
+        return ok.get();
+    }
+
+    long errors() {
+        return errors.get();
+    }
+
+    double percentileMillis(double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    double errorPercent() {
+        var total = ok() + errors();
+        return total == 0 ? 0 : errors() * 100.0 / total;
+    }
+}
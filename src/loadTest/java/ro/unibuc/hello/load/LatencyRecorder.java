@@ -0,0 +1,41 @@
+package ro.unibuc.hello.load;
+
+import java.util.Arrays;
+
+/**
+ * Collects raw request latencies of one run; percentiles are computed once at the end.
+ */
+class LatencyRecorder {
+
+    private long[] latencies = new long[1 << 16];
+    private int count;
+    private long errors;
+
+    synchronized void record(long nanos, boolean ok) {
+        if (!ok) {
+            errors++;
+        }
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = nanos;
+    }
+
+    synchronized long count() {
+        return count;
+    }
+
+    synchronized long errors() {
+        return errors;
+    }
+
+    synchronized double percentileMillis(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        var sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        var index = (int) Math.ceil(percentile / 100 * count) - 1;
+        return sorted[Math.max(0, index)] / 1_000_000.0;
+    }
+}
@@ -0,0 +1,237 @@
+package ro.unibuc.hello.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Open-loop mixed-traffic load test with pass/fail gates.
+ *
+ * Requests are started at a fixed load.rate per second, split between the endpoints by load.mix weights, whether or
+ * not earlier ones have finished. Latency is measured from the moment a request was due, so a stalled server shows up
+ * as latency instead of silently lowering the offered load. After load.warmupSeconds, every endpoint records an HDR
+ * histogram for load.durationSeconds.
+ *
+ * The run fails (exit code 1) when any endpoint is above load.maxP99Millis (or load.maxP99Millis.endpoint), completes
+ * fewer than load.minThroughputRatio of its target rate, errors on more than load.maxErrorPercent of its requests, or,
+ * when load.baseline points to the summary.json of an earlier run, is more than load.maxRegressionPercent worse in p99
+ * or throughput than that baseline. Histograms and the summary are written to load.reportDir.
+ */
+public class LoadSuite {
+
+    private static final String DEFAULT_MIX = "getProduct=50,getProducts=20,supply=10,sell=10,add=10";
+    private static final List<String> SORTS = List.of("", "title_asc", "title_desc", "description_asc", "description_desc", "quantity_asc", "quantity_desc");
+
+    private static class Endpoint {
+        final EndpointStats stats;
+        final Supplier<HttpRequest> request;
+
+        Endpoint(EndpointStats stats, Supplier<HttpRequest> request) {
+            this.stats = stats;
+            this.request = request;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        var rate = Double.parseDouble(System.getProperty("load.rate", "200"));
+        var warmup = Duration.ofSeconds(Long.getLong("load.warmupSeconds", 10));
+        var duration = Duration.ofSeconds(Long.getLong("load.durationSeconds", 60));
+        var reportDir = new File(System.getProperty("load.reportDir", "build/reports/load"));
+
+        var client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+
+        List<Endpoint> endpoints;
+        try (var target = LoadTarget.start()) {
+            LoadTest.seed(client, target.baseUrl);
+            endpoints = endpoints(target.baseUrl, rate, parseMix(System.getProperty("load.mix", DEFAULT_MIX)));
+            run(client, endpoints, rate, warmup, duration);
+        }
+
+        var failures = report(endpoints, duration, reportDir);
+        if (!failures.isEmpty()) {
+            failures.forEach(failure -> System.out.println("FAILED: " + failure));
+            System.exit(1);
+        }
+        System.out.println("all load gates passed");
+    }
+
+    private static Map<String, Double> parseMix(String mix) {
+        var weights = new LinkedHashMap<String, Double>();
+        for (var entry : mix.split(",")) {
+            var split = entry.split("=");
+            weights.put(split[0].trim(), Double.parseDouble(split[1].trim()));
+        }
+        return weights;
+    }
+
+    private static List<Endpoint> endpoints(String baseUrl, double rate, Map<String, Double> mix) {
+        var totalWeight = mix.values().stream().mapToDouble(Double::doubleValue).sum();
+        var endpoints = new ArrayList<Endpoint>();
+        for (var entry : mix.entrySet()) {
+            var endpointRate = rate * entry.getValue() / totalWeight;
+            switch (entry.getKey()) {
+                case "getProduct" -> endpoints.add(new Endpoint(new EndpointStats("getProduct", endpointRate),
+                        () -> get(baseUrl + "/product?name=" + seededTitle())));
+                case "getProducts" -> {
+                    // every sort mode gets its own histogram; the listing share is split evenly between them
+                    for (var sort : SORTS) {
+                        var name = "getProducts." + (sort.isEmpty() ? "default" : sort);
+                        endpoints.add(new Endpoint(new EndpointStats(name, endpointRate / SORTS.size()),
+                                () -> get(baseUrl + "/products?sort=" + sort + "&page=" + ThreadLocalRandom.current().nextInt(10) + "&productsOnPage=20")));
+                    }
+                }
+                case "supply" -> endpoints.add(new Endpoint(new EndpointStats("supply", endpointRate),
+                        () -> post(baseUrl + "/product/supply", String.format("{\"title\":\"%s\",\"quantity\":1}", seededTitle()))));
+                case "sell" -> endpoints.add(new Endpoint(new EndpointStats("sell", endpointRate),
+                        () -> post(baseUrl + "/product/sell", String.format("{\"title\":\"%s\",\"quantity\":1}", seededTitle()))));
+                case "add" -> endpoints.add(new Endpoint(new EndpointStats("add", endpointRate),
+                        () -> post(baseUrl + "/product/add", String.format("{\"title\":\"suite-%s\",\"description\":\"load suite product\",\"quantity\":10}", UUID.randomUUID()))));
+                default -> throw new IllegalArgumentException("load.mix: unknown endpoint " + entry.getKey());
+            }
+        }
+        return endpoints;
+    }
+
+    private static String seededTitle() {
+        return String.format("load-%04d", ThreadLocalRandom.current().nextInt(LoadTest.SEED_PRODUCTS));
+    }
+
+    private static HttpRequest get(String url) {
+        return HttpRequest.newBuilder(URI.create(url)).timeout(Duration.ofSeconds(30)).GET().build();
+    }
+
+    private static HttpRequest post(String url, String body) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private static void run(HttpClient client, List<Endpoint> endpoints, double rate, Duration warmup, Duration duration) {
+        var cumulative = new double[endpoints.size()];
+        var sum = 0.0;
+        for (int i = 0; i < endpoints.size(); i++) {
+            sum += endpoints.get(i).stats.targetRate;
+            cumulative[i] = sum;
+        }
+
+        var intervalNanos = 1_000_000_000.0 / rate;
+        var start = System.nanoTime();
+        var measureFrom = start + warmup.toNanos();
+        var end = measureFrom + duration.toNanos();
+        var inFlight = new ArrayList<CompletableFuture<?>>();
+
+        for (long sent = 0; ; sent++) {
+            var due = start + (long) (sent * intervalNanos);
+            if (due >= end) {
+                break;
+            }
+            var wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            var pick = ThreadLocalRandom.current().nextDouble(sum);
+            var index = 0;
+            while (cumulative[index] <= pick) {
+                index++;
+            }
+            var endpoint = endpoints.get(index);
+            var measured = due >= measureFrom;
+            inFlight.add(client.sendAsync(endpoint.request.get(), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        if (measured) {
+                            endpoint.stats.record(System.nanoTime() - due, error == null && response.statusCode() / 100 == 2);
+                        }
+                    }));
+        }
+        CompletableFuture.allOf(inFlight.toArray(new CompletableFuture[0])).exceptionally(error -> null).join();
+    }
+
+    private static List<String> report(List<Endpoint> endpoints, Duration duration, File reportDir) throws Exception {
+        var maxP99Millis = Double.parseDouble(System.getProperty("load.maxP99Millis", "250"));
+        var minThroughputRatio = Double.parseDouble(System.getProperty("load.minThroughputRatio", "0.95"));
+        var maxErrorPercent = Double.parseDouble(System.getProperty("load.maxErrorPercent", "1"));
+        var maxRegressionPercent = Double.parseDouble(System.getProperty("load.maxRegressionPercent", "20"));
+        var baseline = readBaseline(System.getProperty("load.baseline"));
+
+        reportDir.mkdirs();
+        var objectMapper = new ObjectMapper();
+        var summary = new LinkedHashMap<String, Map<String, Object>>();
+        var failures = new ArrayList<String>();
+
+        System.out.printf("%-26s %10s %10s %10s %10s %10s %10s%n", "endpoint", "target/s", "ok/s", "p50 ms", "p99 ms", "max ms", "errors %");
+        for (var endpoint : endpoints) {
+            var stats = endpoint.stats;
+            var throughput = stats.ok() / (double) duration.toSeconds();
+            var p99 = stats.percentileMillis(99);
+            System.out.printf("%-26s %10.1f %10.1f %10.2f %10.2f %10.2f %10.2f%n",
+                    stats.name, stats.targetRate, throughput, stats.percentileMillis(50), p99, stats.percentileMillis(100), stats.errorPercent());
+
+            try (var out = new PrintStream(new File(reportDir, stats.name + ".hgrm"))) {
+                stats.histogram().outputPercentileDistribution(out, 1000.0);
+            }
+            var result = new LinkedHashMap<String, Object>();
+            result.put("targetRate", stats.targetRate);
+            result.put("throughput", throughput);
+            result.put("p50Millis", stats.percentileMillis(50));
+            result.put("p99Millis", p99);
+            result.put("maxMillis", stats.percentileMillis(100));
+            result.put("errorPercent", stats.errorPercent());
+            summary.put(stats.name, result);
+
+            var endpointMaxP99 = Double.parseDouble(System.getProperty("load.maxP99Millis." + stats.name, String.valueOf(maxP99Millis)));
+            if (p99 > endpointMaxP99) {
+                failures.add(String.format("%s p99 %.2f ms > %.2f ms", stats.name, p99, endpointMaxP99));
+            }
+            if (throughput < stats.targetRate * minThroughputRatio) {
+                failures.add(String.format("%s throughput %.1f/s < %.0f%% of %.1f/s", stats.name, throughput, minThroughputRatio * 100, stats.targetRate));
+            }
+            if (stats.errorPercent() > maxErrorPercent) {
+                failures.add(String.format("%s errors %.2f%% > %.2f%%", stats.name, stats.errorPercent(), maxErrorPercent));
+            }
+
+            var previous = baseline.get(stats.name);
+            if (previous != null) {
+                var previousP99 = ((Number) previous.get("p99Millis")).doubleValue();
+                var previousThroughput = ((Number) previous.get("throughput")).doubleValue();
+                if (p99 > previousP99 * (1 + maxRegressionPercent / 100)) {
+                    failures.add(String.format("%s p99 %.2f ms regressed from %.2f ms", stats.name, p99, previousP99));
+                }
+                if (throughput < previousThroughput * (1 - maxRegressionPercent / 100)) {
+                    failures.add(String.format("%s throughput %.1f/s regressed from %.1f/s", stats.name, throughput, previousThroughput));
+                }
+            }
+        }
+
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(new File(reportDir, "summary.json"), summary);
+        return failures;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Map<String, Object>> readBaseline(String path) throws Exception {
+        if (path == null || path.isBlank()) {
+            return Map.of();
+        }
+        return new ObjectMapper().readValue(new File(path), Map.class);
+    }
+}
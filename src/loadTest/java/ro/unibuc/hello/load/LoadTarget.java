@@ -0,0 +1,52 @@
+package ro.unibuc.hello.load;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.utility.DockerImageName;
+import ro.unibuc.hello.HelloApplication;
+
+/**
+ * The instance under load: the one at load.baseUrl when given, otherwise the application started in this JVM on a
+ * random port against a fresh mongo:5.0.2 container, so a run needs nothing but Docker.
+ */
+class LoadTarget implements AutoCloseable {
+
+    final String baseUrl;
+
+    private final GenericContainer<?> mongo;
+    private final ConfigurableApplicationContext context;
+
+    private LoadTarget(String baseUrl, GenericContainer<?> mongo, ConfigurableApplicationContext context) {
+        this.baseUrl = baseUrl;
+        this.mongo = mongo;
+        this.context = context;
+    }
+
+    static LoadTarget start() {
+        var baseUrl = System.getProperty("load.baseUrl");
+        if (baseUrl != null && !baseUrl.isBlank()) {
+            return new LoadTarget(baseUrl, null, null);
+        }
+
+        GenericContainer<?> mongo = new GenericContainer<>(DockerImageName.parse("mongo:5.0.2")).withExposedPorts(27017);
+        mongo.start();
+        var context = new SpringApplicationBuilder(HelloApplication.class)
+                .properties(
+                        "server.port=0",
+                        "mongodb.connection.url=mongodb://" + mongo.getHost() + ":" + mongo.getMappedPort(27017))
+                .run();
+        var port = context.getEnvironment().getProperty("local.server.port");
+        return new LoadTarget("http://localhost:" + port, mongo, context);
+    }
+
+    @Override
+    public void close() {
+        if (context != null) {
+            context.close();
+        }
+        if (mongo != null) {
+            mongo.stop();
+        }
+    }
+}
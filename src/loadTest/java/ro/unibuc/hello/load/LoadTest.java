@@ -0,0 +1,106 @@
+package ro.unibuc.hello.load;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Closed-loop concurrency ramp against a running instance. For every level in load.concurrency, that many users each
+ * keep exactly one GET /product or GET /products (load.listingPercent of the time) request in flight for
+ * load.durationSeconds. The report shows throughput and latency per level and the highest level that stayed within
+ * load.sloP99Millis without errors.
+ *
+ * Run it once against the blocking stack and once against SPRING_PROFILES_ACTIVE=reactive, or with
+ * VIRTUAL_THREADS_ENABLED=true/false, to compare them.
+ */
+public class LoadTest {
+
+    static final int SEED_PRODUCTS = 1000;
+
+    public static void main(String[] args) throws Exception {
+        var baseUrl = System.getProperty("load.baseUrl", "http://localhost:8080");
+        var levels = Arrays.stream(System.getProperty("load.concurrency", "16,64,256,1024").split(","))
+                .mapToInt(level -> Integer.parseInt(level.trim()))
+                .toArray();
+        var duration = Duration.ofSeconds(Long.getLong("load.durationSeconds", 20));
+        var sloP99Millis = Long.getLong("load.sloP99Millis", 250);
+        var listingPercent = Integer.getInteger("load.listingPercent", 20);
+
+        var client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+
+        seed(client, baseUrl);
+
+        System.out.printf("%-12s %12s %10s %10s %10s %10s%n", "concurrency", "requests/s", "p50 ms", "p99 ms", "max ms", "errors");
+        var maxWithinSlo = 0;
+        for (var level : levels) {
+            var recorder = run(client, baseUrl, level, duration, listingPercent);
+            var p99 = recorder.percentileMillis(99);
+            System.out.printf("%-12d %12.1f %10.2f %10.2f %10.2f %10d%n",
+                    level,
+                    recorder.count() / (double) duration.toSeconds(),
+                    recorder.percentileMillis(50),
+                    p99,
+                    recorder.percentileMillis(100),
+                    recorder.errors());
+            if (p99 <= sloP99Millis && recorder.errors() == 0) {
+                maxWithinSlo = level;
+            }
+        }
+        System.out.printf("max concurrency within p99 <= %d ms: %d%n", sloP99Millis, maxWithinSlo);
+    }
+
+    static void seed(HttpClient client, String baseUrl) throws Exception {
+        var requests = new ArrayList<CompletableFuture<HttpResponse<Void>>>();
+        for (int i = 0; i < SEED_PRODUCTS; i++) {
+            var body = String.format("{\"title\":\"load-%04d\",\"description\":\"load test product\",\"quantity\":1000000}", i);
+            requests.add(client.sendAsync(HttpRequest.newBuilder(URI.create(baseUrl + "/product/add"))
+                            .header("Content-Type", "application/json")
+                            .POST(HttpRequest.BodyPublishers.ofString(body))
+                            .build(),
+                    HttpResponse.BodyHandlers.discarding()));
+        }
+        // 409 for products left over from an earlier run is expected
+        CompletableFuture.allOf(requests.toArray(new CompletableFuture[0])).join();
+    }
+
+    private static LatencyRecorder run(HttpClient client, String baseUrl, int users, Duration duration, int listingPercent) {
+        var recorder = new LatencyRecorder();
+        var deadline = System.nanoTime() + duration.toNanos();
+        var done = new ArrayList<CompletableFuture<Void>>(users);
+        for (int i = 0; i < users; i++) {
+            var user = new CompletableFuture<Void>();
+            done.add(user);
+            next(client, baseUrl, deadline, listingPercent, recorder, user);
+        }
+        CompletableFuture.allOf(done.toArray(new CompletableFuture[0])).join();
+        return recorder;
+    }
+
+    private static void next(HttpClient client, String baseUrl, long deadline, int listingPercent, LatencyRecorder recorder, CompletableFuture<Void> user) {
+        if (System.nanoTime() >= deadline) {
+            user.complete(null);
+            return;
+        }
+
+        var random = ThreadLocalRandom.current();
+        var path = random.nextInt(100) >= listingPercent
+                ? String.format("/product?name=load-%04d", random.nextInt(SEED_PRODUCTS))
+                : "/products?sort=title_asc&page=" + random.nextInt(10) + "&productsOnPage=20";
+        var request = HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(Duration.ofSeconds(30)).GET().build();
+
+        var start = System.nanoTime();
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+            recorder.record(System.nanoTime() - start, error == null && response.statusCode() == 200);
+            next(client, baseUrl, deadline, listingPercent, recorder, user);
+        });
+    }
+}
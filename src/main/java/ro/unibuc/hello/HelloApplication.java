@@ -3,19 +3,18 @@ package ro.unibuc.hello;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
+import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import ro.unibuc.hello.data.ProductEntity;
 import ro.unibuc.hello.data.ProductRepository;
 
-import javax.annotation.PostConstruct;
-
 @SpringBootApplication
-@EnableMongoRepositories(basePackageClasses = ProductRepository.class)
 @EnableScheduling
+@EnableCaching
 public class HelloApplication {
 
-	@Autowired
+	// the reactive profile has no blocking repositories
+	@Autowired(required = false)
 	private ProductRepository productRepository;
 
 	public static void main(String[] args) {
@@ -1,27 +1,66 @@
 package ro.unibuc.hello.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import io.micrometer.core.annotation.Counted;
 import io.micrometer.core.annotation.Timed;
-import io.micrometer.core.instrument.Counter;
-import io.micrometer.core.instrument.Gauge;
-import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ro.unibuc.hello.data.ProductEntity;
 import ro.unibuc.hello.data.ProductRepository;
+import ro.unibuc.hello.data.ReservationEntity;
+import ro.unibuc.hello.data.ReservationRepository;
+import ro.unibuc.hello.data.ReservationStatus;
+import ro.unibuc.hello.data.StockDeltaOutcome;
 import ro.unibuc.hello.dto.AddProductDto;
 import ro.unibuc.hello.dto.ProductAddStockDto;
 import ro.unibuc.hello.dto.ProductDto;
+import ro.unibuc.hello.dto.ProductImportFailureDto;
+import ro.unibuc.hello.dto.ProductImportResultDto;
+import ro.unibuc.hello.dto.ProductPageDto;
+import ro.unibuc.hello.dto.ProductReserveStockDto;
 import ro.unibuc.hello.dto.ProductSellStockDto;
+import ro.unibuc.hello.dto.ProductSuggestionDto;
+import ro.unibuc.hello.dto.ReservationDto;
+import ro.unibuc.hello.dto.StockMovementDto;
+import ro.unibuc.hello.dto.StockMovementResultDto;
+import ro.unibuc.hello.etag.CatalogVersion;
 import ro.unibuc.hello.exception.BadRequestException;
+import ro.unibuc.hello.exception.ConflictException;
 import ro.unibuc.hello.exception.NoContentException;
 import ro.unibuc.hello.exception.NotFoundException;
+import ro.unibuc.hello.exception.Problems;
+import ro.unibuc.hello.metrics.ProductMetrics;
+import ro.unibuc.hello.reservation.ReservationStock;
+import ro.unibuc.hello.search.ProductAutocompleteIndex;
+import ro.unibuc.hello.stock.StockWriteBehind;
 
 
-import java.util.HashMap;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -29,13 +68,51 @@ import java.util.concurrent.atomic.AtomicLong;
 // catch Exception -> intorci 500 + alerta
 
 @Controller
+@Profile("!reactive")
 public class ProductController {
 
     @Autowired
     private ProductRepository productRepository;
 
     @Autowired
-    MeterRegistry metricsRegistry;
+    ProductMetrics productMetrics;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    MappingJackson2CborHttpMessageConverter cborConverter;
+
+    @Autowired
+    MappingJackson2SmileHttpMessageConverter smileConverter;
+
+    @Autowired
+    ProductAutocompleteIndex autocompleteIndex;
+
+    @Autowired
+    ReservationRepository reservationRepository;
+
+    @Autowired
+    StockWriteBehind stockWriteBehind;
+
+    @Autowired
+    ReservationStock reservationStock;
+
+    @Autowired
+    CatalogVersion catalogVersion;
+
+    @Value("${product.movements.max-batch:10000}")
+    private int maxMovementsPerBatch = 10000;
+
+    @Value("${product.import.chunk-size:1000}")
+    private int importChunkSize = 1000;
+
+    @Value("${product.reservation.ttl:PT15M}")
+    private Duration reservationTtl = Duration.ofMinutes(15);
+
+    private static final int MAX_REPORTED_IMPORT_FAILURES = 1000;
+
+    private static final int MAX_AUTOCOMPLETE_SUGGESTIONS = 100;
 
     private static final String helloTemplate = "Hello, %s!";
     private static final String informationTemplate = "%s : %s!";
@@ -45,7 +122,7 @@ public class ProductController {
     @GetMapping("/product")
     @ResponseBody
     public ProductDto getProduct(@RequestParam(name="name") String name) {
-        metricsRegistry.counter("product_get", "endpoint", "Product").increment();
+        productMetrics.productGet();
         var entity = productRepository.findByTitle(name);
         if(entity == null) {
             throw new NotFoundException();
@@ -53,6 +130,21 @@ public class ProductController {
         return new ProductDto(entity);
     }
 
+    // Single lookups go through the findByTitle cache, which already holds the whole product; trimming it here is
+    // cheaper than a projected round trip to Mongo.
+    @ResponseStatus(HttpStatus.OK)
+    @GetMapping(value = "/product", params = "fields")
+    @ResponseBody
+    public Document getProductFields(@RequestParam(name="name") String name, @RequestParam String fields) {
+        var selected = ProductFields.parse(fields);
+        productMetrics.productGet();
+        var entity = productRepository.findByTitle(name);
+        if(entity == null) {
+            throw new NotFoundException();
+        }
+        return ProductFields.of(entity, selected);
+    }
+
     @GetMapping("/products")
     @ResponseStatus(HttpStatus.OK)
     @ResponseBody
@@ -60,49 +152,160 @@ public class ProductController {
     @Counted(value = "product.getall.count", description = "Times list of products was returned")
     public List<ProductDto> getAllProducts(@RequestParam(required = true) String sort, int page, int productsOnPage) {
 
-        var entities = productRepository.findAll();
+        var order = ProductSorts.parse(sort);
+        if (page < 0 || productsOnPage <= 0) {
+            throw new BadRequestException(Problems.PAGE_BAD_ARGUMENT);
+        }
+
+        var entities = productRepository.findPage(order, page, productsOnPage);
         if (entities.size() == 0) {
+            if (productRepository.isCatalogEmpty()) {
+                throw new NoContentException();
+            }
+            productMetrics.noResults();
+        }
+
+        var result = entities.stream().map(ProductDto::new).collect(Collectors.toList());
+
+        return result;
+    }
+
+    // Same page as getAllProducts with only the selected fields, projected in Mongo: list views that show title and
+    // quantity no longer pay for transferring and mapping every description.
+    @GetMapping(value = "/products", params = "fields")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    @Timed(value = "product.getall.time", description = "Time taken to return list of sorted and paged products")
+    @Counted(value = "product.getall.count", description = "Times list of products was returned")
+    public List<Document> getAllProductFields(@RequestParam(required = true) String sort, int page, int productsOnPage,
+                                              @RequestParam String fields) {
+
+        var order = ProductSorts.parse(sort);
+        var selected = ProductFields.parse(fields);
+        if (page < 0 || productsOnPage <= 0) {
+            throw new BadRequestException(Problems.PAGE_BAD_ARGUMENT);
+        }
+
+        var documents = productRepository.findPageFields(order, page, productsOnPage, selected);
+        if (documents.isEmpty()) {
+            if (productRepository.isCatalogEmpty()) {
+                throw new NoContentException();
+            }
+            productMetrics.noResults();
+        }
+        return documents;
+    }
+
+    @GetMapping("/products/scroll")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    @Timed(value = "product.scroll.time", description = "Time taken to return a page of products after a cursor")
+    @Counted(value = "product.scroll.count", description = "Times a page of products after a cursor was returned")
+    public ProductPageDto scrollProducts(@RequestParam(required = true) String sort, @RequestParam(required = false) String after, int productsOnPage) {
+
+        var order = ProductSorts.parse(sort).iterator().next();
+        if (productsOnPage <= 0) {
+            throw new BadRequestException(Problems.PRODUCTS_ON_PAGE_BAD_ARGUMENT);
+        }
+
+        var cursor = after == null ? null : ProductCursor.decode(after, sort);
+        var entities = cursor == null
+                ? productRepository.findPageAfter(order, null, null, productsOnPage)
+                : productRepository.findPageAfter(order, cursor.value, cursor.id, productsOnPage);
+
+        if (entities.size() == 0 && cursor == null && productRepository.isCatalogEmpty()) {
             throw new NoContentException();
         }
-        var returnedEntities = entities.stream();
-        if (sort != null && !sort.equals("")) {
-            var split = sort.split("_");
-            if(split.length != 2 || !List.of("title", "description", "quantity").contains(split[0]) || !List.of("asc", "desc").contains(split[1])) {
-                throw new BadRequestException(new HashMap<>() {{
-                    put("sort", "bad argument");
-                }});
-            }
-            switch(split[0]) {
-                case "title": switch(split[1]) {
-                    case "asc": returnedEntities = returnedEntities.sorted((e1, e2) -> e1.title.compareToIgnoreCase(e2.title)); break;
-                    case "desc": returnedEntities = returnedEntities.sorted((e1, e2) -> e2.title.compareToIgnoreCase(e1.title)); break;
-                }
-                break;
-                case "description": switch(split[1]) {
-                    case "asc": returnedEntities = returnedEntities.sorted((e1, e2) -> e1.description.compareToIgnoreCase(e2.description)); break;
-                    case "desc": returnedEntities = returnedEntities.sorted((e1, e2) -> e2.description.compareToIgnoreCase(e1.description)); break;
-                }
+
+        var products = entities.stream().map(ProductDto::new).collect(Collectors.toList());
+        var next = entities.size() < productsOnPage
+                ? null
+                : ProductCursor.encode(sort, order.getProperty(), entities.get(entities.size() - 1));
+
+        return new ProductPageDto(products, next);
+    }
+
+    @GetMapping("/products/search")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    @Timed(value = "product.search.time", description = "Time taken to search the product catalog")
+    @Counted(value = "product.search.count", description = "Times the product catalog was searched")
+    public List<ProductDto> searchProducts(@RequestParam(required = true) String q,
+                                           @RequestParam(required = false, defaultValue = "text") String mode,
+                                           @RequestParam(required = false, defaultValue = "") String sort,
+                                           int page, int productsOnPage) {
+
+        if (q.isBlank()) {
+            throw new BadRequestException(Problems.QUERY_BAD_ARGUMENT);
+        }
+        if (page < 0 || productsOnPage <= 0) {
+            throw new BadRequestException(Problems.PAGE_BAD_ARGUMENT);
+        }
+
+        List<ProductEntity> entities;
+        switch (mode) {
+            case "text":
+                // no sort means by relevance
+                entities = productRepository.searchText(q, sort.isEmpty() ? Sort.unsorted() : ProductSorts.parse(sort), page, productsOnPage);
                 break;
-                case "quantity": switch(split[1]) {
-                    case "asc": returnedEntities = returnedEntities.sorted((e1, e2) -> e1.quantity - e2.quantity); break;
-                    case "desc": returnedEntities = returnedEntities.sorted((e1, e2) -> e2.quantity - e1.quantity); break;
-                }
+            case "prefix":
+                entities = productRepository.searchPrefix(q, ProductSorts.parse(sort), page, productsOnPage);
                 break;
-            }
+            default:
+                throw new BadRequestException(Problems.MODE_BAD_ARGUMENT);
+        }
 
+        if (entities.size() == 0) {
+            productMetrics.noResults();
         }
 
-        returnedEntities = returnedEntities.skip((long) page *productsOnPage).limit(productsOnPage);
+        return entities.stream().map(ProductDto::new).collect(Collectors.toList());
+    }
 
-        var result = returnedEntities.map(ProductDto::new).collect(Collectors.toList());
+    @GetMapping("/products/autocomplete")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    @Timed(value = "product.autocomplete.time", description = "Time taken to suggest products for a typed prefix")
+    public List<ProductSuggestionDto> autocompleteProducts(@RequestParam(required = true) String prefix,
+                                                           @RequestParam(required = false, defaultValue = "10") int limit) {
 
-        if (result.size() == 0) {
-            metricsRegistry.counter("product_get_no_results", "endpoint", "Product").increment();
+        if (prefix.isBlank()) {
+            throw new BadRequestException(Problems.PREFIX_BAD_ARGUMENT);
+        }
+        if (limit <= 0 || limit > MAX_AUTOCOMPLETE_SUGGESTIONS) {
+            throw new BadRequestException(Problems.LIMIT_BAD_ARGUMENT);
         }
 
-        metricsRegistry.gauge("product_count_number", result.size());
+        // served from memory, never from Mongo
+        return autocompleteIndex.suggest(prefix, limit);
+    }
 
-        return result;
+    @GetMapping("/products/export")
+    @Timed(value = "product.export.time", description = "Time taken to start streaming the product catalog")
+    @Counted(value = "product.export.count", description = "Times the product catalog was exported")
+    public ResponseEntity<StreamingResponseBody> exportProducts(@RequestParam(required = false, defaultValue = "") String sort) {
+
+        var order = ProductSorts.parse(sort);
+
+        // One ProductDto per line, written as the cursor advances, so memory stays flat whatever the catalog size.
+        StreamingResponseBody body = out -> {
+            var writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+            try (var products = productRepository.streamAll(order);
+                 var generator = objectMapper.getFactory().createGenerator(out)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generator.setRootValueSeparator(null);
+
+                var iterator = products.iterator();
+                while (iterator.hasNext()) {
+                    writer.writeValue(generator, new ProductDto(iterator.next()));
+                    generator.writeRaw('\n');
+                }
+            }
+        };
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
     }
 
   
@@ -113,31 +316,38 @@ public class ProductController {
     public void addProductStock(@RequestBody ProductAddStockDto model) {
 
         if (model == null) {
-            throw new BadRequestException(new HashMap<>() {{
-                put("error", "body is missing");
-            }});
+            throw new BadRequestException(Problems.BODY_MISSING);
         }
 
         if (model.quantity <= 0) {
-            throw new BadRequestException(new HashMap<>() {{
-                put("quantity", "negative");
-            }});
+            throw new BadRequestException(Problems.QUANTITY_NEGATIVE);
         }
 
         if (model.quantity > 1000) {
-            metricsRegistry.counter("product_add_stock_over_1000", "endpoint", "Product").increment();
+            productMetrics.largeSupply();
         }
 
-        var product = productRepository.findByTitle(model.title);
-        if (product == null) {
-            metricsRegistry.counter("product_get_no_results", "endpoint", "Product").increment();
-            throw new BadRequestException(new HashMap<>() {{
-                put("product", "not found");
-            }});
+        if (stockWriteBehind.isEnabled()) {
+            var outcome = stockWriteBehind.supply(model.title, model.quantity);
+            if (outcome == StockDeltaOutcome.NOT_FOUND) {
+                productMetrics.noResults();
+                throw new BadRequestException(Problems.PRODUCT_NOT_FOUND);
+            }
+            if (outcome == StockDeltaOutcome.QUANTITY_OVERFLOW) {
+                throw new BadRequestException(Problems.QUANTITY_OVERFLOW);
+            }
+            autocompleteIndex.adjustQuantity(model.title, model.quantity);
+            catalogVersion.changed(model.title);
+            return;
         }
 
-        product.quantity += model.quantity;
-        productRepository.save(product);
+        var product = productRepository.addStock(model.title, model.quantity);
+        if (product == null) {
+            productMetrics.noResults();
+            throw new BadRequestException(Problems.PRODUCT_NOT_FOUND);
+        }
+        autocompleteIndex.setQuantity(product.title, product.quantity);
+        catalogVersion.changed(product.title);
     }
 
     @PostMapping("/product/sell")
@@ -147,28 +357,370 @@ public class ProductController {
     public void sellProductStock(@RequestBody ProductSellStockDto model) {
 
         if (model == null) {
-            throw new BadRequestException(new HashMap<>() {{
-                put("error", "body is missing");
-            }});
+            throw new BadRequestException(Problems.BODY_MISSING);
+        }
+        if (model.quantity <= 0) {
+            throw new BadRequestException(Problems.QUANTITY_NEGATIVE);
+        }
+        takeStock(model.title, model.quantity);
+    }
+
+    // The reservation is stored before its units are taken, so no crash can leave units held by a reservation that does
+    // not exist; see ReservationStock. Concurrent reservations of a hot product never hold more than its stock, and the
+    // units stay held until confirmed, cancelled or product.reservation.ttl.
+    @PostMapping("/product/reserve")
+    @ResponseStatus(HttpStatus.CREATED)
+    @ResponseBody
+    @Timed(value = "product.reserve.time", description = "Time taken to reserve stock of an existing product")
+    public ReservationDto reserveProductStock(@RequestBody ProductReserveStockDto model) {
+
+        if (model == null) {
+            throw new BadRequestException(Problems.BODY_MISSING);
         }
         if (model.quantity <= 0) {
-            throw new BadRequestException(new HashMap<>() {{
-                put("quantity", "negative");
-            }});
+            throw new BadRequestException(Problems.QUANTITY_NEGATIVE);
+        }
+
+        var reservation = new ReservationEntity(model.title, model.quantity, Instant.now().plus(reservationTtl));
+        reservationRepository.insert(reservation);
+
+        var outcome = reservationStock.hold(reservation);
+        if (outcome != StockDeltaOutcome.APPLIED) {
+            // it never held anything; if this delete is lost, the reservation expires without releasing a unit
+            reservationRepository.deleteById(reservation.id);
+            if (outcome == StockDeltaOutcome.NOT_FOUND) {
+                throw new BadRequestException(Problems.PRODUCT_NOT_FOUND);
+            }
+            productMetrics.insufficientStock();
+            throw new BadRequestException(Problems.QUANTITY_INSUFFICIENT_STOCK);
+        }
+        return new ReservationDto(reservation);
+    }
+
+    @PostMapping("/product/reservations/{id}/confirm")
+    @ResponseStatus(HttpStatus.OK)
+    @Timed(value = "product.reservation.confirm.time", description = "Time taken to confirm a stock reservation")
+    public void confirmReservation(@PathVariable String id) {
+
+        var now = Instant.now();
+        var reservation = reservationRepository.close(id, ReservationStatus.CONFIRMED, now);
+        if (reservation != null) {
+            reservationStock.settle(reservation, now);
+        }
+        // a retried confirm is fine; anything else lost the race to a cancel or to the expiry
+        else if (currentStatus(id) != ReservationStatus.CONFIRMED) {
+            throw new ConflictException();
+        }
+    }
+
+    // Once the close is stored the cancel has happened; if the units cannot be handed back right away, the sweeper
+    // finishes it.
+    @PostMapping("/product/reservations/{id}/cancel")
+    @ResponseStatus(HttpStatus.OK)
+    @Timed(value = "product.reservation.cancel.time", description = "Time taken to cancel a stock reservation")
+    public void cancelReservation(@PathVariable String id) {
+
+        var now = Instant.now();
+        var reservation = reservationRepository.close(id, ReservationStatus.CANCELLED, now);
+        if (reservation != null) {
+            reservationStock.settle(reservation, now);
+        }
+        else if (currentStatus(id) == ReservationStatus.CONFIRMED) {
+            throw new ConflictException();
+        }
+    }
+
+    private ReservationStatus currentStatus(String id) {
+        return reservationRepository.findById(id)
+                .orElseThrow(NotFoundException::new)
+                .status;
+    }
+
+    // Takes the whole quantity or throws, never leaving the stock below zero.
+    private void takeStock(String title, int quantity) {
+        if (stockWriteBehind.isEnabled()) {
+            var outcome = stockWriteBehind.sell(title, quantity);
+            if (outcome == StockDeltaOutcome.NOT_FOUND) {
+                throw new BadRequestException(Problems.PRODUCT_NOT_FOUND);
+            }
+            if (outcome == StockDeltaOutcome.INSUFFICIENT_STOCK) {
+                productMetrics.insufficientStock();
+                throw new BadRequestException(Problems.QUANTITY_INSUFFICIENT_STOCK);
+            }
+            autocompleteIndex.adjustQuantity(title, -quantity);
+            catalogVersion.changed(title);
+            return;
         }
-        var product = productRepository.findByTitle(model.title);
+
+        var product = productRepository.sellStock(title, quantity);
         if (product == null) {
-            throw new BadRequestException(new HashMap<>() {{
-                put("product", "not found");
-            }});
+            if (!productRepository.existsByTitle(title)) {
+                throw new BadRequestException(Problems.PRODUCT_NOT_FOUND);
+            }
+
+            // the sell would have taken the stock below zero and was rejected by the guarded update
+            productMetrics.insufficientStock();
+            throw new BadRequestException(Problems.QUANTITY_INSUFFICIENT_STOCK);
+        }
+        autocompleteIndex.setQuantity(product.title, product.quantity);
+        catalogVersion.changed(product.title);
+    }
+
+    @PostMapping("/product/movements")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    @Timed(value = "product.movements.time", description = "Time taken to apply a batch of stock movements")
+    @Counted(value = "product.movements.count", description = "Times a batch of stock movements was applied")
+    public List<StockMovementResultDto> applyStockMovements(@RequestBody List<StockMovementDto> movements) {
+
+        if (movements == null || movements.isEmpty()) {
+            throw new BadRequestException(Problems.BODY_MISSING);
+        }
+        if (movements.size() > maxMovementsPerBatch) {
+            throw new BadRequestException(Map.of("movements", "more than " + maxMovementsPerBatch));
+        }
+
+        // coalesce every valid movement into one net delta per title
+        var netDeltas = new LinkedHashMap<String, Long>();
+        for (var movement : movements) {
+            if (movementProblem(movement) == null) {
+                var delta = movement.type.equals("sell") ? -movement.quantity : movement.quantity;
+                netDeltas.merge(movement.title, (long) delta, Long::sum);
+            }
+        }
+
+        var deltas = new LinkedHashMap<String, Integer>();
+        netDeltas.forEach((title, delta) -> {
+            if (delta >= Integer.MIN_VALUE && delta <= Integer.MAX_VALUE) {
+                deltas.put(title, delta.intValue());
+            }
+        });
+
+        // with write-behind on, a direct update here would race the in-memory stock the sells are checked against
+        var outcomes = stockWriteBehind.isEnabled()
+                ? stockWriteBehind.applyStockDeltas(deltas)
+                : productRepository.applyStockDeltas(deltas);
+        outcomes.forEach((title, outcome) -> {
+            if (outcome == StockDeltaOutcome.APPLIED) {
+                autocompleteIndex.adjustQuantity(title, deltas.get(title));
+                catalogVersion.changed(title);
+            }
+        });
+
+        var results = new ArrayList<StockMovementResultDto>(movements.size());
+        for (int i = 0; i < movements.size(); i++) {
+            var movement = movements.get(i);
+            var problem = movementProblem(movement);
+            if (problem == null) {
+                problem = deltas.containsKey(movement.title) ? outcomeStatus(outcomes.get(movement.title)) : "quantity overflow";
+            }
+            results.add(new StockMovementResultDto(i, movement == null ? null : movement.title, problem));
+        }
+        return results;
+    }
+
+    private static String movementProblem(StockMovementDto movement) {
+        if (movement == null || movement.title == null) {
+            return "bad argument";
+        }
+        if (!"supply".equals(movement.type) && !"sell".equals(movement.type)) {
+            return "bad type";
+        }
+        if (movement.quantity <= 0) {
+            return "negative";
+        }
+        return null;
+    }
+
+    private static String outcomeStatus(StockDeltaOutcome outcome) {
+        switch (outcome) {
+            case NOT_FOUND: return "not found";
+            case INSUFFICIENT_STOCK: return "insufficient stock";
+            case QUANTITY_OVERFLOW: return "quantity overflow";
+            default: return "applied";
+        }
+    }
+
+    @PostMapping(value = "/products/import", consumes = "application/x-ndjson")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    @Timed(value = "product.import.time", description = "Time taken to import a catalog upload")
+    @Counted(value = "product.import.count", description = "Times a catalog upload was imported")
+    public ProductImportResultDto importProductsNdjson(InputStream body) throws IOException {
+        var reader = objectMapper.readerFor(AddProductDto.class);
+        return importProducts(body, (row, line) -> reader.readValue(line));
+    }
+
+    @PostMapping(value = "/products/import", consumes = "text/csv")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    @Timed(value = "product.import.time", description = "Time taken to import a catalog upload")
+    @Counted(value = "product.import.count", description = "Times a catalog upload was imported")
+    public ProductImportResultDto importProductsCsv(InputStream body) throws IOException {
+        return importProducts(body, ProductController::parseCsvRow);
+    }
+
+    // A CBOR or Smile array of AddProductDto, read one element at a time like the line formats. A malformed element
+    // ends the import: unlike a text line, a binary stream has no point to resume from.
+    @PostMapping(value = "/products/import", consumes = {"application/cbor", "application/x-jackson-smile"})
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    @Timed(value = "product.import.time", description = "Time taken to import a catalog upload")
+    @Counted(value = "product.import.count", description = "Times a catalog upload was imported")
+    public ProductImportResultDto importProductsBinary(InputStream body,
+                                                      @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType) throws IOException {
+        var mapper = contentType.isCompatibleWith(MediaType.APPLICATION_CBOR)
+                ? cborConverter.getObjectMapper()
+                : smileConverter.getObjectMapper();
+
+        var result = new ProductImportResultDto();
+        var chunk = new ArrayList<ProductEntity>(importChunkSize);
+        var chunkRows = new ArrayList<Long>(importChunkSize);
+        try (var rows = mapper.readerFor(AddProductDto.class).<AddProductDto>readValues(body)) {
+            long row = 0;
+            while (true) {
+                row++;
+                AddProductDto model;
+                try {
+                    if (!rows.hasNextValue()) {
+                        break;
+                    }
+                    model = rows.nextValue();
+                }
+                catch (IOException | RuntimeException e) {
+                    addImportFailure(result, row, "malformed");
+                    break;
+                }
+                if (model != null) {
+                    addImportRow(result, chunk, chunkRows, row, model);
+                }
+            }
+        }
+        insertImportChunk(result, chunk, chunkRows);
+
+        productMetrics.productsImported(result.imported);
+        return result;
+    }
+
+    private interface ImportRowParser {
+        // returns null for rows that carry no product, such as a CSV header
+        AddProductDto parse(long row, String line) throws IOException;
+    }
+
+    // Reads the upload line by line and inserts in chunks of importChunkSize, so only one chunk is ever held in memory
+    // and reading waits on each insert. Rows are validated like addProduct; failures are reported by 1-based row number.
+    private ProductImportResultDto importProducts(InputStream body, ImportRowParser parser) throws IOException {
+        var result = new ProductImportResultDto();
+        var chunk = new ArrayList<ProductEntity>(importChunkSize);
+        var chunkRows = new ArrayList<Long>(importChunkSize);
+
+        var reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        long row = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            row++;
+            if (line.isBlank()) {
+                continue;
+            }
+
+            AddProductDto model;
+            try {
+                model = parser.parse(row, line);
+            }
+            catch (IOException | RuntimeException e) {
+                addImportFailure(result, row, "malformed");
+                continue;
+            }
+            if (model != null) {
+                addImportRow(result, chunk, chunkRows, row, model);
+            }
+        }
+        insertImportChunk(result, chunk, chunkRows);
+
+        productMetrics.productsImported(result.imported);
+        return result;
+    }
+
+    private void addImportRow(ProductImportResultDto result, List<ProductEntity> chunk, List<Long> chunkRows, long row,
+                              AddProductDto model) {
+        if (model.title == null || model.title.isBlank()) {
+            addImportFailure(result, row, "title missing");
+            return;
+        }
+        if (model.quantity <= 0) {
+            addImportFailure(result, row, "negative");
+            return;
+        }
+
+        chunk.add(new ProductEntity(model.title, model.description, model.quantity));
+        chunkRows.add(row);
+        if (chunk.size() == importChunkSize) {
+            insertImportChunk(result, chunk, chunkRows);
+        }
+    }
+
+    private void insertImportChunk(ProductImportResultDto result, List<ProductEntity> chunk, List<Long> chunkRows) {
+        var failures = productRepository.insertBatch(chunk);
+        result.imported += chunk.size() - failures.size();
+        var inserted = new ArrayList<ProductEntity>(chunk.size() - failures.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            if (!failures.containsKey(i)) {
+                inserted.add(chunk.get(i));
+            }
+        }
+        autocompleteIndex.addAll(inserted);
+        inserted.forEach(product -> catalogVersion.changed(product.title));
+        failures.forEach((index, problem) -> addImportFailure(result, chunkRows.get(index), problem));
+        chunk.clear();
+        chunkRows.clear();
+    }
+
+    private static void addImportFailure(ProductImportResultDto result, long row, String problem) {
+        result.failed++;
+        if (result.failures.size() < MAX_REPORTED_IMPORT_FAILURES) {
+            result.failures.add(new ProductImportFailureDto(row, problem));
         }
+    }
 
-        product.quantity -= model.quantity;
+    // title,description,quantity with optional double quotes ("" escapes a quote); a title,... header on row 1 is skipped
+    static AddProductDto parseCsvRow(long row, String line) {
+        var fields = new ArrayList<String>(3);
+        var field = new StringBuilder();
+        var quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            var c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                }
+                else if (c == '"') {
+                    quoted = false;
+                }
+                else {
+                    field.append(c);
+                }
+            }
+            else if (c == '"') {
+                quoted = true;
+            }
+            else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            }
+            else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
 
-        if(product.quantity < 0) {
-            metricsRegistry.counter("product_stock_negative_number", "endpoint", "Product").increment();
+        if (quoted || fields.size() != 3) {
+            throw new IllegalArgumentException("expected title,description,quantity");
         }
-        productRepository.save(product);
+        if (row == 1 && fields.get(0).trim().equalsIgnoreCase("title")) {
+            return null;
+        }
+        return new AddProductDto(fields.get(0), fields.get(1), Integer.parseInt(fields.get(2).trim()));
     }
 
     @PostMapping("/product/add")
@@ -178,11 +730,18 @@ public class ProductController {
     public void addProduct(@RequestBody AddProductDto model) {
 
         if (model.quantity <= 0) {
-            throw new BadRequestException(new HashMap<>() {{
-                put("quantity", "negative");
-            }});
+            throw new BadRequestException(Problems.QUANTITY_NEGATIVE);
         }
         ProductEntity product = new ProductEntity(model.title, model.description, model.quantity);
-        productRepository.save(product);
+        try {
+            // insert, never save: the unique title index turns a second create into a 409 instead of a duplicate
+            productRepository.insert(product);
+            productMetrics.productAdded();
+            autocompleteIndex.add(product);
+            catalogVersion.changed(product.title);
+        }
+        catch (DuplicateKeyException e) {
+            throw new ConflictException();
+        }
     }
 }
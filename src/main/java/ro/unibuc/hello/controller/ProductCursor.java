@@ -0,0 +1,60 @@
+package ro.unibuc.hello.controller;
+
+import org.bson.Document;
+import ro.unibuc.hello.data.ProductEntity;
+import ro.unibuc.hello.exception.BadRequestException;
+import ro.unibuc.hello.exception.Problems;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque continuation token for /products/scroll: the sort it was issued for, the last sort key and the last id.
+ */
+public class ProductCursor {
+
+    public final Object value;
+    public final String id;
+
+    private ProductCursor(Object value, String id) {
+        this.value = value;
+        this.id = id;
+    }
+
+    public static String encode(String sort, String property, ProductEntity last) {
+        var document = new Document("s", sort)
+                .append("v", sortValue(property, last))
+                .append("id", last.id);
+
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(document.toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static ProductCursor decode(String token, String sort) {
+        Document document;
+        try {
+            document = Document.parse(new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8));
+        }
+        catch (RuntimeException e) {
+            throw badCursor();
+        }
+
+        if (!sort.equals(document.getString("s")) || document.getString("id") == null) {
+            throw badCursor();
+        }
+        return new ProductCursor(document.get("v"), document.getString("id"));
+    }
+
+    private static Object sortValue(String property, ProductEntity entity) {
+        switch (property) {
+            case "title": return entity.title;
+            case "description": return entity.description;
+            case "quantity": return entity.quantity;
+            default: return entity.id;
+        }
+    }
+
+    private static BadRequestException badCursor() {
+        return new BadRequestException(Problems.AFTER_BAD_ARGUMENT);
+    }
+}
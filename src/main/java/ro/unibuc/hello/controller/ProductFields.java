@@ -0,0 +1,52 @@
+package ro.unibuc.hello.controller;
+
+import org.bson.Document;
+import ro.unibuc.hello.data.ProductEntity;
+import ro.unibuc.hello.exception.BadRequestException;
+import ro.unibuc.hello.exception.Problems;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class ProductFields {
+
+    // ProductDto's fields, in its order
+    private static final List<String> ALL = List.of("id", "title", "description", "quantity");
+
+    private ProductFields() {
+    }
+
+    // Translates the comma separated fields selection of /product and /products; the result keeps ProductDto's order,
+    // so the body has the same shape however the client listed them.
+    public static List<String> parse(String fields) {
+        if (fields == null || fields.isBlank()) {
+            throw new BadRequestException(Problems.FIELDS_BAD_ARGUMENT);
+        }
+        var requested = List.of(fields.split(","));
+        for (var field : requested) {
+            if (!ALL.contains(field.strip())) {
+                throw new BadRequestException(Problems.FIELDS_BAD_ARGUMENT);
+            }
+        }
+        var selected = new ArrayList<String>(ALL.size());
+        for (var field : ALL) {
+            if (requested.stream().anyMatch(name -> name.strip().equals(field))) {
+                selected.add(field);
+            }
+        }
+        return selected;
+    }
+
+    public static Document of(ProductEntity entity, List<String> fields) {
+        var document = new Document();
+        for (var field : fields) {
+            switch (field) {
+                case "id" -> document.put("id", entity.id);
+                case "title" -> document.put("title", entity.title);
+                case "description" -> document.put("description", entity.description);
+                default -> document.put("quantity", entity.quantity);
+            }
+        }
+        return document;
+    }
+}
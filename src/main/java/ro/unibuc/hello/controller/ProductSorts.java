@@ -0,0 +1,26 @@
+package ro.unibuc.hello.controller;
+
+import org.springframework.data.domain.Sort;
+import ro.unibuc.hello.exception.BadRequestException;
+import ro.unibuc.hello.exception.Problems;
+
+import java.util.List;
+
+public final class ProductSorts {
+
+    private ProductSorts() {
+    }
+
+    // Translates the field_dir contract of /products into a Mongo sort; _id breaks ties so pages never overlap.
+    public static Sort parse(String sort) {
+        if (sort == null || sort.equals("")) {
+            return Sort.by("id");
+        }
+        var split = sort.split("_");
+        if(split.length != 2 || !List.of("title", "description", "quantity").contains(split[0]) || !List.of("asc", "desc").contains(split[1])) {
+            throw new BadRequestException(Problems.SORT_BAD_ARGUMENT);
+        }
+        var direction = split[1].equals("asc") ? Sort.Direction.ASC : Sort.Direction.DESC;
+        return Sort.by(direction, split[0], "id");
+    }
+}
@@ -0,0 +1,29 @@
+package ro.unibuc.hello.data;
+
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+
+import java.time.Duration;
+
+/**
+ * Benchmarking aid: holds the calling thread for a fixed time before every Mongo command is sent, to simulate a slow
+ * or distant database. Only registered when mongodb.debug.command-latency is above zero.
+ */
+public class InjectedLatencyCommandListener implements CommandListener {
+
+    private final long latencyMillis;
+
+    public InjectedLatencyCommandListener(Duration latency) {
+        this.latencyMillis = latency.toMillis();
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        try {
+            Thread.sleep(latencyMillis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
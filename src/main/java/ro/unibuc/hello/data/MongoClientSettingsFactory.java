@@ -0,0 +1,61 @@
+package ro.unibuc.hello.data;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.mongodb.MongoMetricsCommandListener;
+import io.micrometer.core.instrument.binder.mongodb.MongoMetricsConnectionPoolListener;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client settings shared by MongoConfig and ReactiveMongoConfig, so whichever stack runs gets the same connection
+ * string, pool limits and driver metrics.
+ */
+@Component
+public class MongoClientSettingsFactory {
+
+    @Value("${mongodb.connection.url}")
+    private String connectionURL;
+
+    @Value("${mongodb.pool.max-size:100}")
+    private int poolMaxSize;
+
+    @Value("${mongodb.pool.min-size:0}")
+    private int poolMinSize;
+
+    @Value("${mongodb.pool.max-wait:2m}")
+    private Duration poolMaxWait;
+
+    @Value("${mongodb.pool.max-idle-time:0s}")
+    private Duration poolMaxIdleTime;
+
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+
+    public MongoClientSettingsFactory(ObjectProvider<MeterRegistry> meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public MongoClientSettings.Builder builder() {
+        MongoClientSettings.Builder mongoClientSettings = MongoClientSettings.builder()
+                .applyConnectionString(new ConnectionString(connectionURL))
+                .applyToConnectionPoolSettings(pool -> pool
+                        .maxSize(poolMaxSize)
+                        .minSize(poolMinSize)
+                        .maxWaitTime(poolMaxWait.toMillis(), TimeUnit.MILLISECONDS)
+                        .maxConnectionIdleTime(poolMaxIdleTime.toMillis(), TimeUnit.MILLISECONDS));
+
+        // mongodb.driver.commands timers and mongodb.driver.pool.* gauges (size, checkedout, waitqueuesize)
+        var registry = meterRegistry.getIfAvailable();
+        if (registry != null) {
+            mongoClientSettings.addCommandListener(new MongoMetricsCommandListener(registry));
+            mongoClientSettings.applyToConnectionPoolSettings(pool -> pool
+                    .addConnectionPoolListener(new MongoMetricsConnectionPoolListener(registry)));
+        }
+        return mongoClientSettings;
+    }
+}
@@ -1,22 +1,53 @@
 package ro.unibuc.hello.data;
 
-import com.mongodb.ConnectionString;
-import com.mongodb.MongoClientSettings;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
 import org.springframework.data.mongodb.config.AbstractMongoClientConfiguration;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.TextIndexDefinition;
+import org.springframework.data.mongodb.core.query.Collation;
+import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
 
+import java.time.Duration;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
 
 @Configuration
+@Profile("!reactive")
+@EnableMongoRepositories(basePackageClasses = ProductRepository.class)
 public class MongoConfig extends AbstractMongoClientConfiguration {
 
-    @Value("${mongodb.connection.url}")
-    private String connectionURL;
+    // Case-insensitive ordering used by the product listing; queries must use the same collation as the index to hit it.
+    public static final Collation SORT_COLLATION = Collation.of("en").strength(Collation.ComparisonLevel.secondary());
+
+    private static final Logger log = LoggerFactory.getLogger(MongoConfig.class);
+
+    private static final Duration CLOSED_RESERVATION_RETENTION = Duration.ofDays(1);
+
+    @Value("${mongodb.indexes.create:true}")
+    private boolean createIndexes;
+
+    @Value("${mongodb.debug.command-latency:0ms}")
+    private Duration commandLatency;
+
+    @Autowired
+    private MongoClientSettingsFactory clientSettingsFactory;
 
     @Override
     protected String getDatabaseName() {
@@ -25,15 +56,96 @@ public class MongoConfig extends AbstractMongoClientConfiguration {
 
     @Override
     public MongoClient mongoClient() {
-        MongoClientSettings mongoClientSettings = MongoClientSettings.builder()
-                .applyConnectionString(new ConnectionString(connectionURL))
-                .build();
+        var mongoClientSettings = clientSettingsFactory.builder();
 
-        return MongoClients.create(mongoClientSettings);
+        // it sleeps on the calling thread, so only this blocking client ever gets it
+        if (!commandLatency.isZero()) {
+            mongoClientSettings.addCommandListener(new InjectedLatencyCommandListener(commandLatency));
+        }
+
+        return MongoClients.create(mongoClientSettings.build());
     }
 
     @Override
     public Collection getMappingBasePackages() {
         return Collections.singleton("ro.unibuc.hello.data");
     }
-}
\ No newline at end of file
+
+    // The indexes are created with the template, so no bean can query before they exist and the service never reports
+    // ready without them. Without the unique title index product creation is not idempotent, so startup fails instead.
+    @Bean
+    @Override
+    public MongoTemplate mongoTemplate(MongoDatabaseFactory databaseFactory, MappingMongoConverter converter) {
+        var mongoTemplate = super.mongoTemplate(databaseFactory, converter);
+        if (createIndexes) {
+            ensureProductIndexes(mongoTemplate.indexOps(ProductEntity.class)::ensureIndex);
+            ensureReservationIndexes(mongoTemplate.indexOps(ReservationEntity.class)::ensureIndex);
+        }
+        return mongoTemplate;
+    }
+
+    // Shared with ReactiveMongoConfig, which has no IndexOperations; ensure creates one index or throws like it.
+    public static void ensureProductIndexes(Consumer<IndexDefinition> ensure) {
+        // Every findByTitle, supply and sell is a point lookup by title; unique also stops duplicate products.
+        // No collation here, so plain equality queries on title can seek it.
+        var titleIndex = new Index()
+                .on("title", Sort.Direction.ASC)
+                .named("title_unique")
+                .unique();
+        try {
+            ensure.accept(titleIndex);
+        }
+        catch (DataAccessException e) {
+            throw new IllegalStateException(
+                    "Could not create the unique title index; MongoDB is unreachable or holds duplicate titles", e);
+        }
+
+        // Full-text search of /products/search; a title hit weighs more than a description hit.
+        ensureIndex(ensure, new TextIndexDefinition.TextIndexDefinitionBuilder()
+                .onField("title", 3F)
+                .onField("description")
+                .named("title_description_text")
+                .build());
+
+        // One index per sort key of /products, with _id as tie-breaker so every page is a bounded index walk.
+        for (var field : List.of("title", "description", "quantity")) {
+            ensureIndex(ensure, new Index()
+                    .on(field, Sort.Direction.ASC)
+                    .on("_id", Sort.Direction.ASC)
+                    .named(field + "_id_sort")
+                    .collation(SORT_COLLATION));
+        }
+    }
+
+    public static void ensureReservationIndexes(Consumer<IndexDefinition> ensure) {
+        // The sweeper's claim: held reservations in expiry order.
+        ensureIndex(ensure, new Index()
+                .on("status", Sort.Direction.ASC)
+                .on("expiresAt", Sort.Direction.ASC)
+                .named("status_expires"));
+
+        // The sweeper's second pass: closed reservations whose units were never moved.
+        ensureIndex(ensure, new Index()
+                .on("settledAt", Sort.Direction.ASC)
+                .on("closedAt", Sort.Direction.ASC)
+                .named("unsettled"));
+
+        // Only settled reservations carry settledAt, so none is removed before its units are back on the product.
+        ensureIndex(ensure, new Index()
+                .on("settledAt", Sort.Direction.ASC)
+                .named("settled_ttl")
+                .expire(CLOSED_RESERVATION_RETENTION));
+    }
+
+    private static void ensureIndex(Consumer<IndexDefinition> ensure, IndexDefinition index) {
+        try {
+            ensure.accept(index);
+        }
+        catch (DataAccessResourceFailureException e) {
+            throw e;
+        }
+        catch (DataAccessException e) {
+            log.warn("Could not create index {}", index.getIndexOptions().get("name"), e);
+        }
+    }
+}
@@ -1,13 +1,29 @@
 package ro.unibuc.hello.data;
 
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
 
 @Repository
-public interface ProductRepository extends MongoRepository<ProductEntity, String> {
+public interface ProductRepository extends MongoRepository<ProductEntity, String>, ProductRepositoryCustom {
 
+    @Cacheable(cacheNames = PRODUCTS_CACHE, unless = "#result == null")
     ProductEntity findByTitle(String title);
+    boolean existsByTitle(String title);
     List<ProductEntity> findByDescription(String description);
+
+    @Override
+    @CacheEvict(cacheNames = PRODUCTS_CACHE, key = "#p0.title")
+    <S extends ProductEntity> S save(S entity);
+
+    @Override
+    @CacheEvict(cacheNames = PRODUCTS_CACHE, key = "#p0.title")
+    void delete(ProductEntity entity);
+
+    @Override
+    @CacheEvict(cacheNames = PRODUCTS_CACHE, allEntries = true)
+    void deleteAll();
 }
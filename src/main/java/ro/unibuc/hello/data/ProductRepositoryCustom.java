@@ -0,0 +1,58 @@
+package ro.unibuc.hello.data;
+
+import org.bson.Document;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.data.domain.Sort;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+public interface ProductRepositoryCustom {
+
+    // findByTitle results, keyed by title; see spring.cache.* in application.properties
+    String PRODUCTS_CACHE = "products";
+
+    List<ProductEntity> findPage(Sort sort, int page, int productsOnPage);
+
+    List<Document> findPageFields(Sort sort, int page, int productsOnPage, List<String> fields);
+
+    List<ProductEntity> findPageAfter(Sort.Order order, Object lastValue, String lastId, int productsOnPage);
+
+    Stream<ProductEntity> streamAll(Sort sort);
+
+    Stream<ProductEntity> streamTitlesAndQuantities();
+
+    boolean isCatalogEmpty();
+
+    List<ProductEntity> searchText(String text, Sort sort, int page, int productsOnPage);
+
+    List<ProductEntity> searchPrefix(String prefix, Sort sort, int page, int productsOnPage);
+
+    // Stock changes evict the title and the next findByTitle reloads it. Not a put: two concurrent changes can finish
+    // out of order, and the older product would stay cached.
+    @CacheEvict(cacheNames = PRODUCTS_CACHE, key = "#p0")
+    ProductEntity addStock(String title, int quantity);
+
+    @CacheEvict(cacheNames = PRODUCTS_CACHE, key = "#p0")
+    ProductEntity sellStock(String title, int quantity);
+
+    @CacheEvict(cacheNames = PRODUCTS_CACHE, key = "#p0")
+    ProductEntity holdStock(String title, String holdId, int quantity);
+
+    @CacheEvict(cacheNames = PRODUCTS_CACHE, key = "#p0")
+    ProductEntity releaseHold(String title, String holdId, int quantity);
+
+    void dropHold(String title, String holdId);
+
+    Map<String, StockDeltaOutcome> applyStockDeltas(Map<String, Integer> deltas);
+
+    Map<String, StockDeltaOutcome> applyStockDeltas(Map<String, Integer> deltas, String journal, long sequence);
+
+    Map<String, Long> findJournalSequences(Collection<String> titles, String journal);
+
+    Map<String, Integer> findQuantities(Collection<String> titles);
+
+    Map<Integer, String> insertBatch(List<ProductEntity> products);
+}
@@ -0,0 +1,362 @@
+package ro.unibuc.hello.data;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.data.mongodb.core.query.TextQuery;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.data.util.Pair;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+public class ProductRepositoryCustomImpl implements ProductRepositoryCustom {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductRepositoryCustomImpl.class);
+
+    private static final String MOVEMENT_BATCHES_FIELD = "movementBatches";
+    // how many of the latest batch ids a product keeps; see applyStockDeltas
+    private static final int MOVEMENT_BATCHES_KEPT = 32;
+    private static final String HOLDS_FIELD = "holds";
+    private static final String JOURNAL_SEQUENCES_FIELD = "journalSequences";
+    private static final int STREAM_BATCH_SIZE = 1000;
+    private static final int DUPLICATE_KEY_CODE = 11000;
+
+    private final MongoTemplate mongoTemplate;
+    private final CacheManager cacheManager;
+
+    public ProductRepositoryCustomImpl(MongoTemplate mongoTemplate, CacheManager cacheManager) {
+        this.mongoTemplate = mongoTemplate;
+        this.cacheManager = cacheManager;
+    }
+
+    // Sorting and paging run in Mongo; the collation matches the sort indexes created in MongoConfig
+    // so ordering stays case-insensitive and is served from the index.
+    @Override
+    public List<ProductEntity> findPage(Sort sort, int page, int productsOnPage) {
+        var query = new Query()
+                .with(PageRequest.of(page, productsOnPage, sort))
+                .collation(MongoConfig.SORT_COLLATION);
+
+        return mongoTemplate.find(query, ProductEntity.class);
+    }
+
+    // The same page as findPage, with only the given ProductDto fields fetched from Mongo and returned as raw documents
+    // keyed like ProductDto, so no ProductEntity is mapped and a page of titles never carries the descriptions.
+    @Override
+    public List<Document> findPageFields(Sort sort, int page, int productsOnPage, List<String> fields) {
+        var query = new Query()
+                .with(PageRequest.of(page, productsOnPage, sort))
+                .collation(MongoConfig.SORT_COLLATION);
+        fields.forEach(query.fields()::include);
+        if (!fields.contains("id")) {
+            query.fields().exclude("id");
+        }
+
+        var documents = mongoTemplate.query(ProductEntity.class)
+                .as(Document.class)
+                .matching(query)
+                .all();
+
+        var renamed = new ArrayList<Document>(documents.size());
+        for (var document : documents) {
+            var row = new Document();
+            for (var field : fields) {
+                row.put(field, field.equals("id") ? String.valueOf(document.get("_id")) : document.get(field));
+            }
+            renamed.add(row);
+        }
+        return renamed;
+    }
+
+    // Keyset paging: resumes strictly after (lastValue, lastId) in sort order, so every page is one index range
+    // scan of productsOnPage entries no matter how deep the client has scrolled.
+    @Override
+    public List<ProductEntity> findPageAfter(Sort.Order order, Object lastValue, String lastId, int productsOnPage) {
+        var property = order.getProperty();
+        var query = new Query()
+                .with(Sort.by(order.getDirection(), property, "id"))
+                .limit(productsOnPage)
+                .collation(MongoConfig.SORT_COLLATION);
+
+        if (lastId != null) {
+            if (property.equals("id")) {
+                query.addCriteria(after(Criteria.where("id"), order, lastId));
+            }
+            else {
+                query.addCriteria(new Criteria().orOperator(
+                        after(Criteria.where(property), order, lastValue),
+                        after(Criteria.where(property).is(lastValue).and("id"), order, lastId)));
+            }
+        }
+
+        return mongoTemplate.find(query, ProductEntity.class);
+    }
+
+    private static Criteria after(Criteria criteria, Sort.Order order, Object value) {
+        return order.isAscending() ? criteria.gt(value) : criteria.lt(value);
+    }
+
+    // Backed by a server-side cursor fetched in batches; the caller must close the stream to release it.
+    @Override
+    public Stream<ProductEntity> streamAll(Sort sort) {
+        var query = new Query()
+                .with(sort)
+                .collation(MongoConfig.SORT_COLLATION)
+                .cursorBatchSize(STREAM_BATCH_SIZE);
+
+        return mongoTemplate.stream(query, ProductEntity.class);
+    }
+
+    // Only id, title and quantity, unsorted; for views that need nothing else and should not hold descriptions.
+    @Override
+    public Stream<ProductEntity> streamTitlesAndQuantities() {
+        var query = new Query().cursorBatchSize(STREAM_BATCH_SIZE);
+        query.fields().include("title").include("quantity");
+
+        return mongoTemplate.stream(query, ProductEntity.class);
+    }
+
+    @Override
+    public boolean isCatalogEmpty() {
+        return !mongoTemplate.exists(new Query(), ProductEntity.class);
+    }
+
+    // $text over the title/description text index; without an explicit sort the best matches come first. A text query
+    // cannot run under the sort collation, so field sorts of search results compare case-sensitively.
+    @Override
+    public List<ProductEntity> searchText(String text, Sort sort, int page, int productsOnPage) {
+        var query = TextQuery.queryText(TextCriteria.forDefaultLanguage().matching(text));
+        if (sort.isUnsorted()) {
+            query.sortByScore();
+        }
+        query.with(PageRequest.of(page, productsOnPage, sort));
+
+        return mongoTemplate.find(query, ProductEntity.class);
+    }
+
+    // Case-insensitive prefix match as the collated range [prefix, prefix + U+FFFF), which sorts after every string
+    // starting with prefix; each branch of the $or is a range scan of that field's *_id_sort index.
+    @Override
+    public List<ProductEntity> searchPrefix(String prefix, Sort sort, int page, int productsOnPage) {
+        var upper = prefix + '\uffff';
+        var query = new Query(new Criteria().orOperator(
+                        Criteria.where("title").gte(prefix).lt(upper),
+                        Criteria.where("description").gte(prefix).lt(upper)))
+                .with(PageRequest.of(page, productsOnPage, sort))
+                .collation(MongoConfig.SORT_COLLATION);
+
+        return mongoTemplate.find(query, ProductEntity.class);
+    }
+
+    // Stock changes are single server-side $inc updates, so concurrent supply/sell calls never overwrite each other.
+    // Both return the updated product, or null when no document matched.
+    @Override
+    public ProductEntity addStock(String title, int quantity) {
+        return mongoTemplate.findAndModify(
+                Query.query(Criteria.where("title").is(title)),
+                new Update().inc("quantity", quantity),
+                FindAndModifyOptions.options().returnNew(true),
+                ProductEntity.class);
+    }
+
+    // The quantity guard is part of the filter: a sell either takes the whole amount or matches nothing.
+    @Override
+    public ProductEntity sellStock(String title, int quantity) {
+        return mongoTemplate.findAndModify(
+                Query.query(Criteria.where("title").is(title).and("quantity").gte(quantity)),
+                new Update().inc("quantity", -quantity),
+                FindAndModifyOptions.options().returnNew(true),
+                ProductEntity.class);
+    }
+
+    // A reservation's units are taken with its id recorded under holds in the same update, and only handed back while
+    // that id is still there. Each move is one conditional update, so a retried hold or release matches nothing
+    // instead of moving the stock twice. Both return the updated product, or null when nothing matched.
+    @Override
+    public ProductEntity holdStock(String title, String holdId, int quantity) {
+        return mongoTemplate.findAndModify(
+                Query.query(Criteria.where("title").is(title)
+                        .and("quantity").gte(quantity)
+                        .and(HOLDS_FIELD + "." + holdId).exists(false)),
+                new Update().inc("quantity", -quantity).set(HOLDS_FIELD + "." + holdId, quantity),
+                FindAndModifyOptions.options().returnNew(true),
+                ProductEntity.class);
+    }
+
+    @Override
+    public ProductEntity releaseHold(String title, String holdId, int quantity) {
+        return mongoTemplate.findAndModify(
+                Query.query(Criteria.where("title").is(title).and(HOLDS_FIELD + "." + holdId).exists(true)),
+                new Update().inc("quantity", quantity).unset(HOLDS_FIELD + "." + holdId),
+                FindAndModifyOptions.options().returnNew(true),
+                ProductEntity.class);
+    }
+
+    // A confirmed reservation keeps its units sold; only the marker goes.
+    @Override
+    public void dropHold(String title, String holdId) {
+        mongoTemplate.updateFirst(
+                Query.query(Criteria.where("title").is(title).and(HOLDS_FIELD + "." + holdId).exists(true)),
+                new Update().unset(HOLDS_FIELD + "." + holdId),
+                ProductEntity.class);
+    }
+
+    // Applies one net delta per title as a single unordered bulkWrite. Negative deltas carry the same quantity guard as
+    // sellStock and push the batch id onto the product's latest ones, so the rare partial failure can be resolved per
+    // title with one extra read. The ids are kept as a list rather than a single field, so a batch landing on the same
+    // product before that read cannot hide this one's id. The updates follow the iteration order of deltas, which is
+    // what the error indexes of a BulkOperationException refer to.
+    @Override
+    public Map<String, StockDeltaOutcome> applyStockDeltas(Map<String, Integer> deltas) {
+        return applyStockDeltas(deltas, null, 0);
+    }
+
+    // The same, for deltas taken from a StockJournal: each product also stores the journal sequence in the same update,
+    // and a product that already stores this sequence or a later one is left alone, so applying the deltas twice is
+    // harmless. Reported as APPLIED either way.
+    @Override
+    public Map<String, StockDeltaOutcome> applyStockDeltas(Map<String, Integer> deltas, String journal, long sequence) {
+        var outcomes = new HashMap<String, StockDeltaOutcome>();
+        if (deltas.isEmpty()) {
+            return outcomes;
+        }
+
+        var batch = new ObjectId().toHexString();
+        var updates = new ArrayList<Pair<Query, UpdateDefinition>>(deltas.size());
+        for (var delta : deltas.entrySet()) {
+            var criteria = Criteria.where("title").is(delta.getKey());
+            var update = new Update().inc("quantity", delta.getValue());
+            if (journal != null) {
+                criteria = criteria.and(journalField(journal)).not().gte(sequence);
+                update = update.set(journalField(journal), sequence);
+            }
+            if (delta.getValue() < 0) {
+                criteria = criteria.and("quantity").gte(-delta.getValue());
+                update = update.push(MOVEMENT_BATCHES_FIELD).slice(-MOVEMENT_BATCHES_KEPT).each(batch);
+            }
+            updates.add(Pair.of(Query.query(criteria), update));
+            outcomes.put(delta.getKey(), StockDeltaOutcome.APPLIED);
+        }
+
+        var result = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ProductEntity.class)
+                .updateOne(updates)
+                .execute();
+
+        var cache = cacheManager.getCache(PRODUCTS_CACHE);
+        if (cache != null) {
+            deltas.keySet().forEach(cache::evict);
+        }
+        if (result.getMatchedCount() == deltas.size()) {
+            return outcomes;
+        }
+
+        var query = Query.query(Criteria.where("title").in(deltas.keySet()));
+        query.fields().include("title").include(MOVEMENT_BATCHES_FIELD);
+        if (journal != null) {
+            query.fields().include(journalField(journal));
+        }
+        var stamped = new HashMap<String, List<String>>();
+        var applied = new HashMap<String, Long>();
+        for (var document : mongoTemplate.find(query, Document.class, mongoTemplate.getCollectionName(ProductEntity.class))) {
+            stamped.put(document.getString("title"), document.getList(MOVEMENT_BATCHES_FIELD, String.class, List.of()));
+            if (journal != null) {
+                applied.put(document.getString("title"), journalSequence(document, journal));
+            }
+        }
+
+        for (var delta : deltas.entrySet()) {
+            if (!stamped.containsKey(delta.getKey())) {
+                outcomes.put(delta.getKey(), StockDeltaOutcome.NOT_FOUND);
+            }
+            else if (journal != null && applied.get(delta.getKey()) >= sequence) {
+                outcomes.put(delta.getKey(), StockDeltaOutcome.APPLIED);
+            }
+            else if (delta.getValue() < 0 && !stamped.get(delta.getKey()).contains(batch)) {
+                outcomes.put(delta.getKey(), StockDeltaOutcome.INSUFFICIENT_STOCK);
+            }
+        }
+        return outcomes;
+    }
+
+    // The last sequence of this journal applied to each product, 0 when none was; titles that do not exist are left out.
+    @Override
+    public Map<String, Long> findJournalSequences(Collection<String> titles, String journal) {
+        var query = Query.query(Criteria.where("title").in(titles));
+        query.fields().include("title").include(journalField(journal));
+
+        var sequences = new HashMap<String, Long>();
+        for (var document : mongoTemplate.find(query, Document.class, mongoTemplate.getCollectionName(ProductEntity.class))) {
+            sequences.put(document.getString("title"), journalSequence(document, journal));
+        }
+        return sequences;
+    }
+
+    private static String journalField(String journal) {
+        return JOURNAL_SEQUENCES_FIELD + "." + journal;
+    }
+
+    private static long journalSequence(Document product, String journal) {
+        var sequences = product.get(JOURNAL_SEQUENCES_FIELD, Document.class);
+        return sequences == null ? 0 : sequences.get(journal, 0L);
+    }
+
+    // Current stock straight from Mongo, bypassing the findByTitle cache; titles that do not exist are left out.
+    @Override
+    public Map<String, Integer> findQuantities(Collection<String> titles) {
+        var query = Query.query(Criteria.where("title").in(titles));
+        query.fields().include("title").include("quantity");
+
+        var quantities = new HashMap<String, Integer>();
+        for (var document : mongoTemplate.find(query, Document.class, mongoTemplate.getCollectionName(ProductEntity.class))) {
+            quantities.put(document.getString("title"), document.getInteger("quantity", 0));
+        }
+        return quantities;
+    }
+
+    // One unordered bulk insert per batch: a duplicate title fails only its own row, the rest of the batch still lands.
+    // Returns the failed positions within the batch, as "duplicate" or "rejected"; the server's reason for a rejection is
+    // only logged, since it names fields and server internals.
+    @Override
+    public Map<Integer, String> insertBatch(List<ProductEntity> products) {
+        var failures = new HashMap<Integer, String>();
+        if (products.isEmpty()) {
+            return failures;
+        }
+
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ProductEntity.class)
+                    .insert(products)
+                    .execute();
+        }
+        catch (BulkOperationException e) {
+            for (var error : e.getErrors()) {
+                if (error.getCode() == DUPLICATE_KEY_CODE) {
+                    failures.put(error.getIndex(), "duplicate");
+                }
+                else {
+                    log.warn("Import of product {} rejected by MongoDB ({}): {}",
+                            products.get(error.getIndex()).title, error.getCode(), error.getMessage());
+                    failures.put(error.getIndex(), "rejected");
+                }
+            }
+        }
+        return failures;
+    }
+}
@@ -0,0 +1,33 @@
+package ro.unibuc.hello.data;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+// Units held for a checkout: they are taken off the product's quantity when the reservation is made and handed back
+// when it is cancelled or expires. Closing it and moving its units are two writes, so settledAt records that the
+// second one happened too.
+@Document("reservations")
+public class ReservationEntity {
+
+    @Id
+    public String id;
+
+    public String title;
+    public int quantity;
+    public ReservationStatus status = ReservationStatus.HELD;
+    public Instant expiresAt;
+
+    // set when the reservation leaves HELD
+    public Instant closedAt;
+
+    // set once the product side of the close is done; the TTL index in MongoConfig removes reservations a day later
+    public Instant settledAt;
+
+    public ReservationEntity(String title, int quantity, Instant expiresAt) {
+        this.title = title;
+        this.quantity = quantity;
+        this.expiresAt = expiresAt;
+    }
+}
@@ -0,0 +1,15 @@
+package ro.unibuc.hello.data;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface ReservationRepositoryCustom {
+
+    ReservationEntity close(String id, ReservationStatus status, Instant now);
+
+    ReservationEntity claimExpired(Instant now);
+
+    void markSettled(String id, Instant now);
+
+    List<ReservationEntity> findUnsettled(Instant closedBefore, int limit);
+}
@@ -0,0 +1,66 @@
+package ro.unibuc.hello.data;
+
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Instant;
+import java.util.List;
+
+public class ReservationRepositoryCustomImpl implements ReservationRepositoryCustom {
+
+    private final MongoTemplate mongoTemplate;
+
+    public ReservationRepositoryCustomImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    // Every transition starts from HELD inside the filter, so of a confirm, a cancel and the sweeper racing for the same
+    // reservation exactly one wins. A confirm also has to beat the expiry.
+    // Returns the closed reservation, or null when it is unknown or no longer held.
+    @Override
+    public ReservationEntity close(String id, ReservationStatus status, Instant now) {
+        var criteria = Criteria.where("id").is(id).and("status").is(ReservationStatus.HELD);
+        if (status == ReservationStatus.CONFIRMED) {
+            criteria = criteria.and("expiresAt").gt(now);
+        }
+        return mongoTemplate.findAndModify(
+                Query.query(criteria),
+                new Update().set("status", status).set("closedAt", now),
+                FindAndModifyOptions.options().returnNew(true),
+                ReservationEntity.class);
+    }
+
+    // Takes the oldest held reservation past its expiry, served by the status_expires index.
+    @Override
+    public ReservationEntity claimExpired(Instant now) {
+        return mongoTemplate.findAndModify(
+                Query.query(Criteria.where("status").is(ReservationStatus.HELD).and("expiresAt").lte(now))
+                        .with(Sort.by("expiresAt")),
+                new Update().set("status", ReservationStatus.EXPIRED).set("closedAt", now),
+                FindAndModifyOptions.options().returnNew(true),
+                ReservationEntity.class);
+    }
+
+    @Override
+    public void markSettled(String id, Instant now) {
+        mongoTemplate.updateFirst(
+                Query.query(Criteria.where("id").is(id)),
+                new Update().set("settledAt", now),
+                ReservationEntity.class);
+    }
+
+    // Closed reservations whose product side never caught up, oldest first, served by the unsettled index. Held ones
+    // have no closedAt, so the range leaves them out.
+    @Override
+    public List<ReservationEntity> findUnsettled(Instant closedBefore, int limit) {
+        return mongoTemplate.find(
+                Query.query(Criteria.where("settledAt").is(null).and("closedAt").lte(closedBefore))
+                        .with(Sort.by("closedAt"))
+                        .limit(limit),
+                ReservationEntity.class);
+    }
+}
@@ -0,0 +1,8 @@
+package ro.unibuc.hello.data;
+
+public enum ReservationStatus {
+    HELD,
+    CONFIRMED,
+    CANCELLED,
+    EXPIRED
+}
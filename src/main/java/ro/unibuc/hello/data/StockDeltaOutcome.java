@@ -0,0 +1,8 @@
+package ro.unibuc.hello.data;
+
+public enum StockDeltaOutcome {
+    APPLIED,
+    NOT_FOUND,
+    INSUFFICIENT_STOCK,
+    QUANTITY_OVERFLOW
+}
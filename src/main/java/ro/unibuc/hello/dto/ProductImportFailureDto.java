@@ -0,0 +1,11 @@
+package ro.unibuc.hello.dto;
+
+public class ProductImportFailureDto {
+    public long row;
+    public String problem;
+
+    public ProductImportFailureDto(long row, String problem) {
+        this.row = row;
+        this.problem = problem;
+    }
+}
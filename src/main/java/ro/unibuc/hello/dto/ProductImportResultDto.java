@@ -0,0 +1,10 @@
+package ro.unibuc.hello.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ProductImportResultDto {
+    public long imported;
+    public long failed;
+    public List<ProductImportFailureDto> failures = new ArrayList<>();
+}
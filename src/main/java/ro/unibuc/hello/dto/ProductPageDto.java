@@ -0,0 +1,13 @@
+package ro.unibuc.hello.dto;
+
+import java.util.List;
+
+public class ProductPageDto {
+    public List<ProductDto> products;
+    public String next;
+
+    public ProductPageDto(List<ProductDto> products, String next) {
+        this.products = products;
+        this.next = next;
+    }
+}
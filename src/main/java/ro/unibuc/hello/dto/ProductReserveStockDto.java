@@ -0,0 +1,11 @@
+package ro.unibuc.hello.dto;
+
+public class ProductReserveStockDto {
+    public String title;
+    public int quantity;
+
+    public ProductReserveStockDto(String title, int quantity) {
+        this.title = title;
+        this.quantity = quantity;
+    }
+}
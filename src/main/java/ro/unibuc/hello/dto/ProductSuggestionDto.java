@@ -0,0 +1,13 @@
+package ro.unibuc.hello.dto;
+
+public class ProductSuggestionDto {
+    public String id;
+    public String title;
+    public int quantity;
+
+    public ProductSuggestionDto(String id, String title, int quantity) {
+        this.id = id;
+        this.title = title;
+        this.quantity = quantity;
+    }
+}
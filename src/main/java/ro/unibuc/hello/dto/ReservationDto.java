@@ -0,0 +1,22 @@
+package ro.unibuc.hello.dto;
+
+import ro.unibuc.hello.data.ReservationEntity;
+
+import java.time.Instant;
+
+public class ReservationDto {
+    public String id;
+
+    public String title;
+    public int quantity;
+    public String status;
+    public Instant expiresAt;
+
+    public ReservationDto(ReservationEntity entity) {
+        this.id = entity.id;
+        this.title = entity.title;
+        this.quantity = entity.quantity;
+        this.status = entity.status.name();
+        this.expiresAt = entity.expiresAt;
+    }
+}
@@ -0,0 +1,13 @@
+package ro.unibuc.hello.dto;
+
+public class StockMovementDto {
+    public String type;
+    public String title;
+    public int quantity;
+
+    public StockMovementDto(String type, String title, int quantity) {
+        this.type = type;
+        this.title = title;
+        this.quantity = quantity;
+    }
+}
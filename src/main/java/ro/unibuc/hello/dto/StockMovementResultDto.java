@@ -0,0 +1,13 @@
+package ro.unibuc.hello.dto;
+
+public class StockMovementResultDto {
+    public int index;
+    public String title;
+    public String status;
+
+    public StockMovementResultDto(int index, String title, String status) {
+        this.index = index;
+        this.title = title;
+        this.status = status;
+    }
+}
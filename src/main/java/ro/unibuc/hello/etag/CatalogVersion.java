@@ -0,0 +1,75 @@
+package ro.unibuc.hello.etag;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Version counters behind the ETags of GET /products and GET /product: one for the whole catalog and one per product,
+ * bumped after every write has reached Mongo (and the findByTitle cache), so a response is never tagged with a version
+ * newer than its data.
+ *
+ * Product versions are striped by title hash: memory stays fixed whatever the catalog size, and two titles sharing a
+ * stripe only cost each other a full response. The tags carry a random per-process epoch, so a tag issued by another
+ * instance or before a restart never matches. Writes made by other instances are seen through ProductChangeStream;
+ * while it is not running, tags also roll over every product.etag.max-staleness, which bounds how long a 304 can
+ * hide another instance's write.
+ */
+@Component
+@Profile("!reactive")
+public class CatalogVersion {
+
+    private static final int STRIPES = 1024;
+
+    private final String epoch = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    private final AtomicLong catalog = new AtomicLong();
+    private final AtomicLongArray products = new AtomicLongArray(STRIPES);
+
+    // bumped when a change cannot be pinned to a title (deletes seen by id, full reloads)
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile boolean followingChanges;
+
+    @Value("${product.etag.max-staleness:PT10S}")
+    private Duration maxStaleness = Duration.ofSeconds(10);
+
+    public void changed(String title) {
+        products.incrementAndGet(stripe(title));
+        catalog.incrementAndGet();
+    }
+
+    public void changedAll() {
+        generation.incrementAndGet();
+        catalog.incrementAndGet();
+    }
+
+    public void setFollowingChanges(boolean followingChanges) {
+        this.followingChanges = followingChanges;
+    }
+
+    public String catalogTag(String variant) {
+        return tag(catalog.get(), variant);
+    }
+
+    public String productTag(String title, String variant) {
+        return tag(generation.get() + "." + products.get(stripe(title)), variant);
+    }
+
+    // variant tells representations of the same version apart (query, Accept), which a strong tag must do
+    private String tag(Object version, String variant) {
+        var tag = new StringBuilder(64).append('"').append(epoch).append('-').append(version);
+        if (!followingChanges) {
+            tag.append('-').append(System.currentTimeMillis() / Math.max(1, maxStaleness.toMillis()));
+        }
+        return tag.append('-').append(Integer.toHexString(variant.hashCode())).append('"').toString();
+    }
+
+    private static int stripe(String title) {
+        return title == null ? 0 : title.hashCode() & (STRIPES - 1);
+    }
+}
@@ -0,0 +1,44 @@
+package ro.unibuc.hello.etag;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import ro.unibuc.hello.metrics.ProductMetrics;
+
+@Configuration
+@Profile("!reactive")
+public class ConditionalGetConfig implements WebMvcConfigurer {
+
+    // the tag computed by ConditionalGetInterceptor, set on the response once the body turns out to be a 200
+    public static final String ETAG_ATTRIBUTE = ConditionalGetConfig.class.getName() + ".etag";
+
+    private final CatalogVersion catalogVersion;
+    private final ProductMetrics productMetrics;
+
+    @Value("${product.etag.enabled:true}")
+    private boolean enabled;
+
+    @Value("${product.cache-control.products:no-cache}")
+    private String productsCacheControl;
+
+    @Value("${product.cache-control.product:no-cache}")
+    private String productCacheControl;
+
+    public ConditionalGetConfig(CatalogVersion catalogVersion, ProductMetrics productMetrics) {
+        this.catalogVersion = catalogVersion;
+        this.productMetrics = productMetrics;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        if (!enabled) {
+            return;
+        }
+        registry.addInterceptor(new ConditionalGetInterceptor(catalogVersion, productMetrics, false, productsCacheControl))
+                .addPathPatterns("/products");
+        registry.addInterceptor(new ConditionalGetInterceptor(catalogVersion, productMetrics, true, productCacheControl))
+                .addPathPatterns("/product");
+    }
+}
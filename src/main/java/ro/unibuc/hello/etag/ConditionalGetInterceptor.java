@@ -0,0 +1,57 @@
+package ro.unibuc.hello.etag;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.servlet.HandlerInterceptor;
+import ro.unibuc.hello.metrics.ProductMetrics;
+
+/**
+ * Answers a GET of /products or /product whose If-None-Match carries the current tag with 304 before the controller
+ * runs, so an unchanged poll costs neither a Mongo query nor serialization. Other requests get the tag and the
+ * endpoint's Cache-Control; the tag is only kept on 200 responses.
+ */
+public class ConditionalGetInterceptor implements HandlerInterceptor {
+
+    private final CatalogVersion catalogVersion;
+    private final ProductMetrics productMetrics;
+    private final boolean product;
+    private final String cacheControl;
+
+    public ConditionalGetInterceptor(CatalogVersion catalogVersion, ProductMetrics productMetrics, boolean product,
+                                     String cacheControl) {
+        this.catalogVersion = catalogVersion;
+        this.productMetrics = productMetrics;
+        this.product = product;
+        this.cacheControl = cacheControl;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (!"GET".equals(request.getMethod())) {
+            return true;
+        }
+
+        // read before the controller queries, so a write racing the request can only make the tag older than the data
+        var variant = request.getQueryString() + '|' + request.getHeader(HttpHeaders.ACCEPT);
+        var tag = product
+                ? catalogVersion.productTag(request.getParameter("name"), variant)
+                : catalogVersion.catalogTag(variant);
+
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+
+        var ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        // a list of tags or a single one; ours never contain a comma or a quote of their own
+        if (ifNoneMatch != null && ifNoneMatch.contains(tag)) {
+            productMetrics.conditionalGet(true);
+            response.setHeader(HttpHeaders.ETAG, tag);
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return false;
+        }
+
+        productMetrics.conditionalGet(false);
+        request.setAttribute(ConditionalGetConfig.ETAG_ATTRIBUTE, tag);
+        return true;
+    }
+}
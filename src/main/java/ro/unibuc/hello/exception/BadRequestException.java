@@ -1,13 +1,13 @@
 package ro.unibuc.hello.exception;
 
-import java.util.HashMap;
+import java.util.Map;
 
-public class BadRequestException extends RuntimeException {
+public class BadRequestException extends ClientErrorException {
 
-    private HashMap<String, String> problems;
-    public HashMap<String, String> getProblems() { return this.problems; }
+    private final Map<String, String> problems;
+    public Map<String, String> getProblems() { return this.problems; }
 
-    public BadRequestException(HashMap<String, String> problems) {
+    public BadRequestException(Map<String, String> problems) {
         super("Bad Request");
 
         this.problems = problems;
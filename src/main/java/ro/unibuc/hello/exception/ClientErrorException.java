@@ -0,0 +1,13 @@
+package ro.unibuc.hello.exception;
+
+/**
+ * Base of the exceptions that end up as a 4xx/204 response. They are ordinary control flow for bad input, so they are
+ * built without a stack trace or suppression list: filling the stack trace is most of the cost of a throw and nobody
+ * reads it for a 404.
+ */
+abstract class ClientErrorException extends RuntimeException {
+
+    ClientErrorException(String message) {
+        super(message, null, false, false);
+    }
+}
@@ -0,0 +1,7 @@
+package ro.unibuc.hello.exception;
+
+public class ConflictException extends ClientErrorException {
+    public ConflictException() {
+        super("Conflict");
+    }
+}
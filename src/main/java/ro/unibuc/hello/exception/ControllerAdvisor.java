@@ -6,6 +6,7 @@ import io.micrometer.core.annotation.Counted;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
@@ -13,10 +14,8 @@ import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
 
-import java.time.LocalDateTime;
-import java.util.HashMap;
-
 @ControllerAdvice
+@Profile("!reactive")
 public class ControllerAdvisor extends ResponseEntityExceptionHandler {
 
     private final MeterRegistry metricsRegistry;
@@ -39,6 +38,16 @@ public class ControllerAdvisor extends ResponseEntityExceptionHandler {
 //            .tags("endpoint", "Product")
 //            .register(metricsRegistry);
 
+    private final Counter counter409;
+
+    private final Counter counter201Manual;
+
+    private final Counter counter400Manual;
+
+    private final Counter counter404Manual;
+
+    private final Counter counterInternalServerError;
+
     public ControllerAdvisor(MeterRegistry metricsRegistry) {
         this.metricsRegistry = metricsRegistry;
         counter201 = Counter.builder("product_201_responses_count")
@@ -55,6 +64,16 @@ public class ControllerAdvisor extends ResponseEntityExceptionHandler {
                 .description("Number of requests returning 404 Not Found")
                 .tags("endpoint", "Product")
                 .register(this.metricsRegistry);
+
+        counter409 = Counter.builder("product_409_responses_count")
+                .description("Number of requests returning 409 Conflict")
+                .tags("endpoint", "Product")
+                .register(this.metricsRegistry);
+
+        counter201Manual = metricsRegistry.counter("product_counter_201_manual", "endpoint", "Product");
+        counter400Manual = metricsRegistry.counter("product_counter_400_manual", "endpoint", "Product");
+        counter404Manual = metricsRegistry.counter("product_counter_404_manual", "endpoint", "Product");
+        counterInternalServerError = metricsRegistry.counter("product_internal_server_error", "endpoint", "Product");
     }
 
     @ExceptionHandler(NotFoundException.class)
@@ -64,13 +83,9 @@ public class ControllerAdvisor extends ResponseEntityExceptionHandler {
 
         counter404.increment();
 
-        metricsRegistry.counter("product_counter_404_manual", "endpoint", "Product").increment();
+        counter404Manual.increment();
 
-        var body = new HashMap<String, Object>();
-        body.put("timestamp", LocalDateTime.now());
-        body.put("message", ex.getMessage());
-
-        return new ResponseEntity<>(body, HttpStatus.NOT_FOUND);
+        return new ResponseEntity<>(new ErrorBody(ex.getMessage()), HttpStatus.NOT_FOUND);
     }
 
     @ExceptionHandler(BadRequestException.class)
@@ -79,13 +94,18 @@ public class ControllerAdvisor extends ResponseEntityExceptionHandler {
 
         counter400.increment();
 
-        metricsRegistry.counter("product_counter_400_manual", "endpoint", "Product").increment();
+        counter400Manual.increment();
+
+        return new ResponseEntity<>(new ErrorBody(ex.getProblems()), HttpStatus.BAD_REQUEST);
+    }
+
+    @ExceptionHandler(ConflictException.class)
+    public ResponseEntity<Object> handleConflictException(
+            ConflictException ex, WebRequest request) {
 
-        var body = new HashMap<String, Object>();
-        body.put("timestamp", LocalDateTime.now());
-        body.put("message", ex.getProblems());
+        counter409.increment();
 
-        return new ResponseEntity<>(body, HttpStatus.BAD_REQUEST);
+        return new ResponseEntity<>(new ErrorBody(ex.getMessage()), HttpStatus.CONFLICT);
     }
 
     @ExceptionHandler(NoContentException.class)
@@ -94,25 +114,20 @@ public class ControllerAdvisor extends ResponseEntityExceptionHandler {
 
         counter201.increment();
 
-        metricsRegistry.counter("product_counter_201_manual", "endpoint", "Product").increment();
+        counter201Manual.increment();
 
-        var body = new HashMap<String, Object>();
-        body.put("timestamp", LocalDateTime.now());
-        body.put("message", ex.getMessage());
-
-        return new ResponseEntity<>(body, HttpStatus.NO_CONTENT);
+        // a 204 never carries a body
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
     }
 
     @ExceptionHandler(Exception.class)
     public ResponseEntity<Object> handleInternalServerErrorException(
-            NoContentException ex, WebRequest request) {
+            Exception ex, WebRequest request) {
 
-        metricsRegistry.counter("product_internal_server_error", "endpoint", "Product").increment();
+        counterInternalServerError.increment();
 
-        var body = new HashMap<String, Object>();
-        body.put("timestamp", LocalDateTime.now());
-        body.put("message", ex.getMessage());
+        logger.error("Unhandled exception", ex);
 
-        return new ResponseEntity<>(body, HttpStatus.NO_CONTENT);
+        return new ResponseEntity<>(new ErrorBody("Internal Server Error"), HttpStatus.INTERNAL_SERVER_ERROR);
     }
 }
@@ -0,0 +1,17 @@
+package ro.unibuc.hello.exception;
+
+import java.time.LocalDateTime;
+
+/**
+ * JSON body of every error response: {"timestamp": ..., "message": ...}. A plain object instead of a HashMap, so
+ * building one is a single allocation and Jackson writes it without map iteration.
+ */
+public class ErrorBody {
+    public final LocalDateTime timestamp;
+    public final Object message;
+
+    public ErrorBody(Object message) {
+        this.timestamp = LocalDateTime.now();
+        this.message = message;
+    }
+}
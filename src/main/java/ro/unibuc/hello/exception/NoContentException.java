@@ -1,8 +1,6 @@
 package ro.unibuc.hello.exception;
 
-import java.util.HashMap;
-
-public class NoContentException extends RuntimeException {
+public class NoContentException extends ClientErrorException {
 
     public NoContentException() {
         super("No Content");
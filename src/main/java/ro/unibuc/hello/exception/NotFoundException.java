@@ -1,6 +1,6 @@
 package ro.unibuc.hello.exception;
 
-public class NotFoundException extends RuntimeException {
+public class NotFoundException extends ClientErrorException {
     public NotFoundException() {
         super("Not Found");
     }
@@ -0,0 +1,28 @@
+package ro.unibuc.hello.exception;
+
+import java.util.Map;
+
+/**
+ * Preallocated problem descriptors for BadRequestException, one immutable map per validation error, so rejecting a
+ * request allocates nothing but the exception itself.
+ */
+public final class Problems {
+
+    public static final Map<String, String> BODY_MISSING = Map.of("error", "body is missing");
+    public static final Map<String, String> PAGE_BAD_ARGUMENT = Map.of("page", "bad argument");
+    public static final Map<String, String> PRODUCTS_ON_PAGE_BAD_ARGUMENT = Map.of("productsOnPage", "bad argument");
+    public static final Map<String, String> SORT_BAD_ARGUMENT = Map.of("sort", "bad argument");
+    public static final Map<String, String> FIELDS_BAD_ARGUMENT = Map.of("fields", "bad argument");
+    public static final Map<String, String> AFTER_BAD_ARGUMENT = Map.of("after", "bad argument");
+    public static final Map<String, String> QUERY_BAD_ARGUMENT = Map.of("q", "bad argument");
+    public static final Map<String, String> MODE_BAD_ARGUMENT = Map.of("mode", "bad argument");
+    public static final Map<String, String> PREFIX_BAD_ARGUMENT = Map.of("prefix", "bad argument");
+    public static final Map<String, String> LIMIT_BAD_ARGUMENT = Map.of("limit", "bad argument");
+    public static final Map<String, String> QUANTITY_NEGATIVE = Map.of("quantity", "negative");
+    public static final Map<String, String> QUANTITY_INSUFFICIENT_STOCK = Map.of("quantity", "insufficient stock");
+    public static final Map<String, String> QUANTITY_OVERFLOW = Map.of("quantity", "overflow");
+    public static final Map<String, String> PRODUCT_NOT_FOUND = Map.of("product", "not found");
+
+    private Problems() {
+    }
+}
@@ -0,0 +1,190 @@
+package ro.unibuc.hello.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ro.unibuc.hello.data.ProductEntity;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * All product meters, registered once at startup so request paths only increment a field instead of looking a meter
+ * up by name and tags on every call.
+ */
+@Component
+public class ProductMetrics {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductMetrics.class);
+
+    private final Counter productGet;
+    private final Counter noResults;
+    private final Counter largeSupply;
+    private final Counter insufficientStock;
+    private final Counter importedRows;
+    private final Counter expiredReservations;
+    private final Timer stockFlush;
+    private final Counter stockFlushTitles;
+    private final Counter stockFlushRejected;
+    private final Counter notModified;
+    private final Counter modified;
+
+    // Kept up to date by this instance's own inserts and resynced from Mongo, which also picks up other instances' writes.
+    // While ProductChangeStream is running it reports every insert and delete, from any instance, instead; the resync
+    // keeps running then too, so a change counted twice or missed around a reconnect does not stick.
+    private final AtomicLong catalogSize = new AtomicLong();
+    private volatile boolean followingChanges;
+
+    @Autowired(required = false)
+    private MongoTemplate mongoTemplate;
+
+    public ProductMetrics(MeterRegistry metricsRegistry) {
+        productGet = Counter.builder("product_get")
+                .description("Number of single product lookups")
+                .tags("endpoint", "Product")
+                .register(metricsRegistry);
+
+        noResults = Counter.builder("product_get_no_results")
+                .description("Number of lookups or pages that found no product")
+                .tags("endpoint", "Product")
+                .register(metricsRegistry);
+
+        largeSupply = Counter.builder("product_add_stock_over_1000")
+                .description("Number of supplies of more than 1000 units")
+                .tags("endpoint", "Product")
+                .register(metricsRegistry);
+
+        insufficientStock = Counter.builder("product_stock_negative_number")
+                .description("Number of sells rejected because they would take the stock below zero")
+                .tags("endpoint", "Product")
+                .register(metricsRegistry);
+
+        importedRows = Counter.builder("product_import_rows_number")
+                .description("Number of products created by catalog imports")
+                .tags("endpoint", "Product")
+                .register(metricsRegistry);
+
+        expiredReservations = Counter.builder("product_reservation_expired_number")
+                .description("Number of stock reservations released because they were not confirmed in time")
+                .tags("endpoint", "Product")
+                .register(metricsRegistry);
+
+        stockFlush = Timer.builder("product_stock_flush")
+                .description("Time taken to write accumulated stock deltas back to MongoDB")
+                .tags("endpoint", "Product")
+                .register(metricsRegistry);
+
+        stockFlushTitles = Counter.builder("product_stock_flush_titles_number")
+                .description("Number of coalesced per-title stock updates written by the write-behind flusher")
+                .tags("endpoint", "Product")
+                .register(metricsRegistry);
+
+        stockFlushRejected = Counter.builder("product_stock_flush_rejected_number")
+                .description("Number of accumulated stock deltas MongoDB refused at flush time (product gone or stock short)")
+                .tags("endpoint", "Product")
+                .register(metricsRegistry);
+
+        // 304 hit ratio: rate(result="not_modified") / rate of both
+        notModified = Counter.builder("product_conditional_get")
+                .description("Number of product GETs checked against their ETag, by outcome")
+                .tags("endpoint", "Product", "result", "not_modified")
+                .register(metricsRegistry);
+
+        modified = Counter.builder("product_conditional_get")
+                .description("Number of product GETs checked against their ETag, by outcome")
+                .tags("endpoint", "Product", "result", "modified")
+                .register(metricsRegistry);
+
+        Gauge.builder("product_count_number", catalogSize, AtomicLong::get)
+                .description("Number of products in the catalog")
+                .tags("endpoint", "Product")
+                .register(metricsRegistry);
+    }
+
+    public void productGet() {
+        productGet.increment();
+    }
+
+    public void noResults() {
+        noResults.increment();
+    }
+
+    public void largeSupply() {
+        largeSupply.increment();
+    }
+
+    public void insufficientStock() {
+        insufficientStock.increment();
+    }
+
+    public void productsImported(long count) {
+        importedRows.increment(count);
+        if (!followingChanges) {
+            catalogSize.addAndGet(count);
+        }
+    }
+
+    public void productAdded() {
+        if (!followingChanges) {
+            catalogSize.incrementAndGet();
+        }
+    }
+
+    public void reservationExpired() {
+        expiredReservations.increment();
+    }
+
+    public void stockFlushed(int titles, long nanos) {
+        stockFlushTitles.increment(titles);
+        stockFlush.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void stockFlushRejected() {
+        stockFlushRejected.increment();
+    }
+
+    public void conditionalGet(boolean wasNotModified) {
+        (wasNotModified ? notModified : modified).increment();
+    }
+
+    public void setFollowingChanges(boolean followingChanges) {
+        this.followingChanges = followingChanges;
+    }
+
+    public void catalogChanged(long delta) {
+        catalogSize.addAndGet(delta);
+    }
+
+    public long catalogSize() {
+        return catalogSize.get();
+    }
+
+    @Scheduled(fixedDelayString = "${product.metrics.catalog-refresh:PT1M}", initialDelayString = "${product.metrics.catalog-refresh:PT1M}")
+    public void refreshCatalogSizePeriodically() {
+        refreshCatalogSize();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void refreshCatalogSize() {
+        if (mongoTemplate == null) {
+            return;
+        }
+        try {
+            // estimatedCount reads collection metadata, so this stays cheap whatever the catalog size
+            catalogSize.set(mongoTemplate.estimatedCount(ProductEntity.class));
+        }
+        catch (DataAccessException e) {
+            log.warn("Could not refresh the product catalog size", e);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package ro.unibuc.hello.reactive;
+
+import io.micrometer.core.annotation.Counted;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.reactive.result.method.annotation.ResponseEntityExceptionHandler;
+import ro.unibuc.hello.exception.BadRequestException;
+import ro.unibuc.hello.exception.ConflictException;
+import ro.unibuc.hello.exception.ErrorBody;
+import ro.unibuc.hello.exception.NoContentException;
+import ro.unibuc.hello.exception.NotFoundException;
+
+/**
+ * WebFlux twin of ControllerAdvisor: same status codes, bodies and counters for the reactive profile.
+ */
+@ControllerAdvice
+@Profile("reactive")
+public class ReactiveControllerAdvisor extends ResponseEntityExceptionHandler {
+
+    private final MeterRegistry metricsRegistry;
+
+    private final Counter counter201;
+
+    private final Counter counter400;
+
+    private final Counter counter404;
+
+    private final Counter counter409;
+
+    private final Counter counter201Manual;
+
+    private final Counter counter400Manual;
+
+    private final Counter counter404Manual;
+
+    private final Counter counterInternalServerError;
+
+    public ReactiveControllerAdvisor(MeterRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+        counter201 = Counter.builder("product_201_responses_count")
+                .description("Number of requests returning 201 No Content")
+                .tags("endpoint", "Product")
+                .register(this.metricsRegistry);
+
+        counter400 = Counter.builder("product_400_responses_count")
+                .description("Number of requests returning 400 Bad Request")
+                .tags("endpoint", "Product")
+                .register(this.metricsRegistry);
+
+        counter404 = Counter.builder("product_404_responses_count")
+                .description("Number of requests returning 404 Not Found")
+                .tags("endpoint", "Product")
+                .register(this.metricsRegistry);
+
+        counter409 = Counter.builder("product_409_responses_count")
+                .description("Number of requests returning 409 Conflict")
+                .tags("endpoint", "Product")
+                .register(this.metricsRegistry);
+
+        counter201Manual = metricsRegistry.counter("product_counter_201_manual", "endpoint", "Product");
+        counter400Manual = metricsRegistry.counter("product_counter_400_manual", "endpoint", "Product");
+        counter404Manual = metricsRegistry.counter("product_counter_404_manual", "endpoint", "Product");
+        counterInternalServerError = metricsRegistry.counter("product_internal_server_error", "endpoint", "Product");
+    }
+
+    @ExceptionHandler(NotFoundException.class)
+    @Counted(value = "product.notfound", description = "Times a request returned 404 Not Found")
+    public ResponseEntity<Object> handleNotFoundException(NotFoundException ex) {
+
+        counter404.increment();
+
+        counter404Manual.increment();
+
+        return new ResponseEntity<>(new ErrorBody(ex.getMessage()), HttpStatus.NOT_FOUND);
+    }
+
+    @ExceptionHandler(BadRequestException.class)
+    public ResponseEntity<Object> handleBadRequestException(BadRequestException ex) {
+
+        counter400.increment();
+
+        counter400Manual.increment();
+
+        return new ResponseEntity<>(new ErrorBody(ex.getProblems()), HttpStatus.BAD_REQUEST);
+    }
+
+    @ExceptionHandler(ConflictException.class)
+    public ResponseEntity<Object> handleConflictException(ConflictException ex) {
+
+        counter409.increment();
+
+        return new ResponseEntity<>(new ErrorBody(ex.getMessage()), HttpStatus.CONFLICT);
+    }
+
+    @ExceptionHandler(NoContentException.class)
+    public ResponseEntity<Object> handleNoContentException(NoContentException ex) {
+
+        counter201.increment();
+
+        counter201Manual.increment();
+
+        // a 204 never carries a body
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+
+    @ExceptionHandler(Exception.class)
+    public ResponseEntity<Object> handleInternalServerErrorException(Exception ex) {
+
+        counterInternalServerError.increment();
+
+        logger.error("Unhandled exception", ex);
+
+        return new ResponseEntity<>(new ErrorBody("Internal Server Error"), HttpStatus.INTERNAL_SERVER_ERROR);
+    }
+}
@@ -0,0 +1,65 @@
+package ro.unibuc.hello.reactive;
+
+import com.mongodb.MongoClientSettings;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.mongodb.ReactiveMongoDatabaseFactory;
+import org.springframework.data.mongodb.config.AbstractReactiveMongoConfiguration;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.repository.config.EnableReactiveMongoRepositories;
+import ro.unibuc.hello.data.MongoClientSettingsFactory;
+import ro.unibuc.hello.data.MongoConfig;
+import ro.unibuc.hello.data.ProductEntity;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Reactive Mongo access for the "reactive" profile, which replaces MongoConfig: no blocking client, template or
+ * repository is created next to it. It shares MongoConfig's client settings and indexes, but never the injected
+ * command latency, which would put the driver's threads to sleep.
+ */
+@Configuration
+@Profile("reactive")
+@EnableReactiveMongoRepositories(basePackageClasses = ReactiveProductRepository.class)
+public class ReactiveMongoConfig extends AbstractReactiveMongoConfiguration {
+
+    @Value("${mongodb.indexes.create:true}")
+    private boolean createIndexes;
+
+    @Autowired
+    private MongoClientSettingsFactory clientSettingsFactory;
+
+    @Override
+    protected String getDatabaseName() {
+        return "test";
+    }
+
+    @Override
+    protected MongoClientSettings mongoClientSettings() {
+        return clientSettingsFactory.builder().build();
+    }
+
+    @Override
+    protected Collection<String> getMappingBasePackages() {
+        return Set.of("ro.unibuc.hello.data");
+    }
+
+    // Blocks at startup, before any request runs on the event loop; see MongoConfig's mongoTemplate.
+    @Bean
+    @Override
+    public ReactiveMongoTemplate reactiveMongoTemplate(ReactiveMongoDatabaseFactory databaseFactory,
+                                                       MappingMongoConverter mongoConverter) {
+        var mongoTemplate = super.reactiveMongoTemplate(databaseFactory, mongoConverter);
+        if (createIndexes) {
+            // this profile serves no reservations, so their indexes are left to the blocking stack
+            var products = mongoTemplate.indexOps(ProductEntity.class);
+            MongoConfig.ensureProductIndexes(index -> products.ensureIndex(index).block());
+        }
+        return mongoTemplate;
+    }
+}
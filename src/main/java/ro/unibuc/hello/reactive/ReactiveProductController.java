@@ -0,0 +1,137 @@
+package ro.unibuc.hello.reactive;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+import ro.unibuc.hello.controller.ProductSorts;
+import ro.unibuc.hello.data.ProductEntity;
+import ro.unibuc.hello.dto.AddProductDto;
+import ro.unibuc.hello.dto.ProductAddStockDto;
+import ro.unibuc.hello.dto.ProductDto;
+import ro.unibuc.hello.dto.ProductSellStockDto;
+import ro.unibuc.hello.exception.BadRequestException;
+import ro.unibuc.hello.exception.ConflictException;
+import ro.unibuc.hello.exception.NoContentException;
+import ro.unibuc.hello.exception.NotFoundException;
+import ro.unibuc.hello.exception.Problems;
+import ro.unibuc.hello.metrics.ProductMetrics;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Non-blocking counterpart of ProductController for the "reactive" profile: same routes, validation and error
+ * responses, served on the WebFlux event loop with the reactive Mongo driver.
+ */
+@Controller
+@Profile("reactive")
+public class ReactiveProductController {
+
+    @Autowired
+    private ReactiveProductRepository productRepository;
+
+    @Autowired
+    ProductMetrics productMetrics;
+
+    @ResponseStatus(HttpStatus.OK)
+    @GetMapping("/product")
+    @ResponseBody
+    public Mono<ProductDto> getProduct(@RequestParam(name="name") String name) {
+        productMetrics.productGet();
+        return productRepository.findByTitle(name)
+                .switchIfEmpty(Mono.error(NotFoundException::new))
+                .map(ProductDto::new);
+    }
+
+    @GetMapping("/products")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public Mono<List<ProductDto>> getAllProducts(@RequestParam(required = true) String sort, int page, int productsOnPage) {
+
+        var order = ProductSorts.parse(sort);
+        if (page < 0 || productsOnPage <= 0) {
+            throw new BadRequestException(Problems.PAGE_BAD_ARGUMENT);
+        }
+
+        return productRepository.findPage(order, page, productsOnPage)
+                .map(ProductDto::new)
+                .collect(Collectors.toList())
+                .flatMap(result -> {
+                    if (result.size() != 0) {
+                        return Mono.just(result);
+                    }
+                    return productRepository.isCatalogEmpty().flatMap(empty -> {
+                        if (empty) {
+                            return Mono.<List<ProductDto>>error(new NoContentException());
+                        }
+                        productMetrics.noResults();
+                        return Mono.just(result);
+                    });
+                });
+    }
+
+    @ResponseStatus(HttpStatus.OK)
+    @PostMapping("/product/supply")
+    public Mono<Void> addProductStock(@RequestBody ProductAddStockDto model) {
+
+        if (model == null) {
+            throw new BadRequestException(Problems.BODY_MISSING);
+        }
+
+        if (model.quantity <= 0) {
+            throw new BadRequestException(Problems.QUANTITY_NEGATIVE);
+        }
+
+        if (model.quantity > 1000) {
+            productMetrics.largeSupply();
+        }
+
+        return productRepository.addStock(model.title, model.quantity)
+                .switchIfEmpty(Mono.error(() -> {
+                    productMetrics.noResults();
+                    return new BadRequestException(Problems.PRODUCT_NOT_FOUND);
+                }))
+                .then();
+    }
+
+    @PostMapping("/product/sell")
+    @ResponseStatus(HttpStatus.OK)
+    public Mono<Void> sellProductStock(@RequestBody ProductSellStockDto model) {
+
+        if (model == null) {
+            throw new BadRequestException(Problems.BODY_MISSING);
+        }
+        if (model.quantity <= 0) {
+            throw new BadRequestException(Problems.QUANTITY_NEGATIVE);
+        }
+
+        return productRepository.sellStock(model.title, model.quantity)
+                .switchIfEmpty(Mono.defer(() -> productRepository.existsByTitle(model.title).flatMap(exists -> {
+                    if (!exists) {
+                        return Mono.<ProductEntity>error(new BadRequestException(Problems.PRODUCT_NOT_FOUND));
+                    }
+
+                    productMetrics.insufficientStock();
+                    return Mono.<ProductEntity>error(new BadRequestException(Problems.QUANTITY_INSUFFICIENT_STOCK));
+                })))
+                .then();
+    }
+
+    @PostMapping("/product/add")
+    @ResponseStatus(HttpStatus.CREATED)
+    public Mono<Void> addProduct(@RequestBody AddProductDto model) {
+
+        if (model.quantity <= 0) {
+            throw new BadRequestException(Problems.QUANTITY_NEGATIVE);
+        }
+        ProductEntity product = new ProductEntity(model.title, model.description, model.quantity);
+        return productRepository.insert(product)
+                .onErrorMap(DuplicateKeyException.class, e -> new ConflictException())
+                .doOnSuccess(inserted -> productMetrics.productAdded())
+                .then();
+    }
+}
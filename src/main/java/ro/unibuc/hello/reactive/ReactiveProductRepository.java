@@ -0,0 +1,13 @@
+package ro.unibuc.hello.reactive;
+
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+import ro.unibuc.hello.data.ProductEntity;
+
+@Repository
+public interface ReactiveProductRepository extends ReactiveMongoRepository<ProductEntity, String>, ReactiveProductRepositoryCustom {
+
+    Mono<ProductEntity> findByTitle(String title);
+    Mono<Boolean> existsByTitle(String title);
+}
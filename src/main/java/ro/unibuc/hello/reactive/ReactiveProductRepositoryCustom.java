@@ -0,0 +1,17 @@
+package ro.unibuc.hello.reactive;
+
+import org.springframework.data.domain.Sort;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ro.unibuc.hello.data.ProductEntity;
+
+public interface ReactiveProductRepositoryCustom {
+
+    Flux<ProductEntity> findPage(Sort sort, int page, int productsOnPage);
+
+    Mono<Boolean> isCatalogEmpty();
+
+    Mono<ProductEntity> addStock(String title, int quantity);
+
+    Mono<ProductEntity> sellStock(String title, int quantity);
+}
@@ -0,0 +1,55 @@
+package ro.unibuc.hello.reactive;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ro.unibuc.hello.data.MongoConfig;
+import ro.unibuc.hello.data.ProductEntity;
+
+// Same queries as ProductRepositoryCustomImpl, issued through the reactive driver.
+public class ReactiveProductRepositoryCustomImpl implements ReactiveProductRepositoryCustom {
+
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    public ReactiveProductRepositoryCustomImpl(ReactiveMongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public Flux<ProductEntity> findPage(Sort sort, int page, int productsOnPage) {
+        var query = new Query()
+                .with(PageRequest.of(page, productsOnPage, sort))
+                .collation(MongoConfig.SORT_COLLATION);
+
+        return mongoTemplate.find(query, ProductEntity.class);
+    }
+
+    @Override
+    public Mono<Boolean> isCatalogEmpty() {
+        return mongoTemplate.exists(new Query(), ProductEntity.class).map(exists -> !exists);
+    }
+
+    @Override
+    public Mono<ProductEntity> addStock(String title, int quantity) {
+        return mongoTemplate.findAndModify(
+                Query.query(Criteria.where("title").is(title)),
+                new Update().inc("quantity", quantity),
+                FindAndModifyOptions.options().returnNew(true),
+                ProductEntity.class);
+    }
+
+    @Override
+    public Mono<ProductEntity> sellStock(String title, int quantity) {
+        return mongoTemplate.findAndModify(
+                Query.query(Criteria.where("title").is(title).and("quantity").gte(quantity)),
+                new Update().inc("quantity", -quantity),
+                FindAndModifyOptions.options().returnNew(true),
+                ProductEntity.class);
+    }
+}
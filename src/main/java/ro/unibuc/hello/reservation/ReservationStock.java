@@ -0,0 +1,108 @@
+package ro.unibuc.hello.reservation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import ro.unibuc.hello.data.ProductRepository;
+import ro.unibuc.hello.data.ReservationEntity;
+import ro.unibuc.hello.data.ReservationRepository;
+import ro.unibuc.hello.data.ReservationStatus;
+import ro.unibuc.hello.data.StockDeltaOutcome;
+import ro.unibuc.hello.etag.CatalogVersion;
+import ro.unibuc.hello.search.ProductAutocompleteIndex;
+import ro.unibuc.hello.stock.StockWriteBehind;
+
+import java.time.Instant;
+
+/**
+ * Moves a reservation's units on and off its product, for ProductController and ReservationSweeper alike.
+ *
+ * Without a transaction, the reservation and the product are two writes. Each move is made safe to repeat instead:
+ * the product records the reservation's id next to the units it holds (ProductRepository's holdStock), and a release
+ * or confirm only acts while that id is there. The reservation is written first, so a crash between the two writes
+ * leaves work a retry can finish: a reservation inserted but never held expires and releases nothing, and one closed
+ * but never settled (settledAt unset) is settled again by the sweeper.
+ */
+@Component
+@Profile("!reactive")
+public class ReservationStock {
+
+    private static final Logger log = LoggerFactory.getLogger(ReservationStock.class);
+
+    private final ProductRepository productRepository;
+    private final ReservationRepository reservationRepository;
+    private final StockWriteBehind stockWriteBehind;
+    private final ProductAutocompleteIndex autocompleteIndex;
+    private final CatalogVersion catalogVersion;
+
+    public ReservationStock(ProductRepository productRepository, ReservationRepository reservationRepository,
+                            StockWriteBehind stockWriteBehind, ProductAutocompleteIndex autocompleteIndex,
+                            CatalogVersion catalogVersion) {
+        this.productRepository = productRepository;
+        this.reservationRepository = reservationRepository;
+        this.stockWriteBehind = stockWriteBehind;
+        this.autocompleteIndex = autocompleteIndex;
+        this.catalogVersion = catalogVersion;
+    }
+
+    // Takes the units of a reservation that is already stored, with the same floor at zero as a sell.
+    public StockDeltaOutcome hold(ReservationEntity reservation) {
+        if (stockWriteBehind.isEnabled()) {
+            if (stockWriteBehind.holdStock(reservation.title, reservation.id, reservation.quantity)) {
+                autocompleteIndex.adjustQuantity(reservation.title, -reservation.quantity);
+                catalogVersion.changed(reservation.title);
+                return StockDeltaOutcome.APPLIED;
+            }
+        }
+        else {
+            var product = productRepository.holdStock(reservation.title, reservation.id, reservation.quantity);
+            if (product != null) {
+                autocompleteIndex.setQuantity(product.title, product.quantity);
+                catalogVersion.changed(product.title);
+                return StockDeltaOutcome.APPLIED;
+            }
+        }
+        return productRepository.existsByTitle(reservation.title)
+                ? StockDeltaOutcome.INSUFFICIENT_STOCK
+                : StockDeltaOutcome.NOT_FOUND;
+    }
+
+    /**
+     * Finishes the product side of a closed reservation: a confirmed one drops its hold, a cancelled or expired one
+     * hands its units back. Safe to repeat. Returns false when Mongo failed, leaving the reservation to the sweeper.
+     */
+    public boolean settle(ReservationEntity reservation, Instant now) {
+        try {
+            if (reservation.status == ReservationStatus.CONFIRMED) {
+                productRepository.dropHold(reservation.title, reservation.id);
+            }
+            else {
+                release(reservation);
+            }
+            reservationRepository.markSettled(reservation.id, now);
+            return true;
+        }
+        catch (DataAccessException e) {
+            log.warn("Could not settle reservation {}, the sweeper retries it", reservation.id, e);
+            return false;
+        }
+    }
+
+    private void release(ReservationEntity reservation) {
+        if (stockWriteBehind.isEnabled()) {
+            if (stockWriteBehind.releaseHold(reservation.title, reservation.id, reservation.quantity)) {
+                autocompleteIndex.adjustQuantity(reservation.title, reservation.quantity);
+                catalogVersion.changed(reservation.title);
+            }
+            return;
+        }
+
+        var product = productRepository.releaseHold(reservation.title, reservation.id, reservation.quantity);
+        if (product != null) {
+            autocompleteIndex.setQuantity(product.title, product.quantity);
+            catalogVersion.changed(product.title);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package ro.unibuc.hello.reservation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ro.unibuc.hello.data.ReservationRepository;
+import ro.unibuc.hello.metrics.ProductMetrics;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Hands the units of reservations that were neither confirmed nor cancelled in time back to their products.
+ *
+ * Each expired reservation is claimed with one conditional update (HELD to EXPIRED), so any number of instances can
+ * sweep at once and a confirm racing the sweep either wins or finds the reservation expired, never both. A Mongo TTL
+ * index alone cannot do this: it deletes documents without giving the stock back, so here it only cleans up
+ * reservations that are already settled.
+ *
+ * Each sweep also settles reservations that were closed some time ago but whose units never moved, because the
+ * request or sweep that closed them failed or died before ReservationStock settled them.
+ */
+@Component
+@Profile("!reactive")
+public class ReservationSweeper {
+
+    private static final Logger log = LoggerFactory.getLogger(ReservationSweeper.class);
+
+    // bounds one run, so a backlog after downtime is worked off over a few sweeps instead of one long one
+    private static final int MAX_EXPIRED_PER_SWEEP = 1000;
+
+    // long enough that a close settled by its own request is never picked up here; settling twice would be harmless
+    private static final Duration SETTLE_GRACE = Duration.ofMinutes(1);
+
+    private final ReservationRepository reservationRepository;
+    private final ReservationStock reservationStock;
+    private final ProductMetrics productMetrics;
+
+    public ReservationSweeper(ReservationRepository reservationRepository, ReservationStock reservationStock,
+                              ProductMetrics productMetrics) {
+        this.reservationRepository = reservationRepository;
+        this.reservationStock = reservationStock;
+        this.productMetrics = productMetrics;
+    }
+
+    @Scheduled(fixedDelayString = "${product.reservation.sweep:PT10S}")
+    public void sweep() {
+        var now = Instant.now();
+        try {
+            for (int i = 0; i < MAX_EXPIRED_PER_SWEEP; i++) {
+                var reservation = reservationRepository.claimExpired(now);
+                if (reservation == null) {
+                    break;
+                }
+                reservationStock.settle(reservation, now);
+                productMetrics.reservationExpired();
+            }
+
+            for (var reservation : reservationRepository.findUnsettled(now.minus(SETTLE_GRACE), MAX_EXPIRED_PER_SWEEP)) {
+                reservationStock.settle(reservation, now);
+            }
+        }
+        catch (DataAccessException e) {
+            log.warn("Could not expire stock reservations", e);
+        }
+    }
+}
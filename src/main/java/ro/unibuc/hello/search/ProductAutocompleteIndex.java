@@ -0,0 +1,311 @@
+package ro.unibuc.hello.search;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ro.unibuc.hello.data.ProductEntity;
+import ro.unibuc.hello.data.ProductRepository;
+import ro.unibuc.hello.dto.ProductSuggestionDto;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * In-process type-ahead index over product titles.
+ *
+ * Titles are normalized (lower case, accents stripped, the same equivalence as the secondary-strength sort collation)
+ * and kept in parallel arrays sorted by (key, title), so a prefix lookup is one binary search plus a scan of the k
+ * matches and the whole index costs a few references and an int per product.
+ *
+ * Readers never lock: they work on an immutable snapshot published through a volatile field. New titles are
+ * copy-on-write under the lock; quantity changes are written in place, so a reader may briefly see the previous
+ * quantity. The index is built at startup. ProductController keeps it current for this instance's writes; writes made
+ * by other instances arrive through ProductChangeStream, or, where change streams are unavailable, with the rebuild
+ * every product.autocomplete.rebuild (10 minutes). A rebuild streams only id, title and quantity, and the new titles,
+ * quantities and removals that arrive while it runs are applied again to the snapshot it publishes.
+ */
+@Component
+@Profile("!reactive")
+public class ProductAutocompleteIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductAutocompleteIndex.class);
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private static final class Snapshot {
+        final String[] keys;
+        final String[] titles;
+        final String[] ids;
+        final int[] quantities;
+
+        Snapshot(String[] keys, String[] titles, String[] ids, int[] quantities) {
+            this.keys = keys;
+            this.titles = titles;
+            this.ids = ids;
+            this.quantities = quantities;
+        }
+
+        int size() {
+            return keys.length;
+        }
+    }
+
+    private static final class Entry {
+        final String key;
+        final String title;
+        final String id;
+        final int quantity;
+
+        Entry(ProductEntity product) {
+            this.key = normalize(product.title);
+            this.title = product.title;
+            this.id = product.id;
+            this.quantity = product.quantity;
+        }
+    }
+
+    private volatile Snapshot snapshot = new Snapshot(new String[0], new String[0], new String[0], new int[0]);
+
+    // set while ProductChangeStream applies every write to the index, which makes the periodic rebuild redundant
+    private volatile boolean followingChanges;
+
+    // Non-null while a rebuild streams the catalog, guarded by this. Changes that set a value rather than adjust one are
+    // recorded here too, since the rebuild may have read the product before them; an adjustment may already be in what
+    // it read, and with change streams its absolute value follows anyway.
+    private List<Runnable> changesDuringRebuild;
+    private final Object rebuildLock = new Object();
+
+    @Autowired(required = false)
+    private ProductRepository productRepository;
+
+    public void setFollowingChanges(boolean followingChanges) {
+        this.followingChanges = followingChanges;
+    }
+
+    @Scheduled(fixedDelayString = "${product.autocomplete.rebuild:PT10M}", initialDelayString = "${product.autocomplete.rebuild:PT10M}")
+    public void refresh() {
+        if (!followingChanges) {
+            rebuild();
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        if (productRepository == null) {
+            return;
+        }
+        synchronized (rebuildLock) {
+            synchronized (this) {
+                changesDuringRebuild = new ArrayList<>();
+            }
+            try (var products = productRepository.streamTitlesAndQuantities()) {
+                // each product is reduced to its entry as it arrives, so whole documents never pile up
+                var entries = new ArrayList<Entry>();
+                products.filter(product -> product.title != null).forEach(product -> entries.add(new Entry(product)));
+                var rebuilt = build(entries);
+                synchronized (this) {
+                    snapshot = rebuilt;
+                    changesDuringRebuild.forEach(Runnable::run);
+                }
+            }
+            catch (DataAccessException e) {
+                log.warn("Could not build the product autocomplete index", e);
+            }
+            finally {
+                synchronized (this) {
+                    changesDuringRebuild = null;
+                }
+            }
+        }
+    }
+
+    public synchronized void replaceAll(Collection<ProductEntity> products) {
+        snapshot = build(entries(products));
+    }
+
+    public List<ProductSuggestionDto> suggest(String prefix, int limit) {
+        var current = snapshot;
+        var key = normalize(prefix);
+        var suggestions = new ArrayList<ProductSuggestionDto>(Math.min(limit, 16));
+        for (int i = lowerBound(current, key, ""); i < current.size() && suggestions.size() < limit; i++) {
+            if (!current.keys[i].startsWith(key)) {
+                break;
+            }
+            suggestions.add(new ProductSuggestionDto(current.ids[i], current.titles[i], current.quantities[i]));
+        }
+        return suggestions;
+    }
+
+    public void add(ProductEntity product) {
+        addAll(List.of(product));
+    }
+
+    public synchronized void addAll(Collection<ProductEntity> products) {
+        var entries = entries(products);
+        applyAdd(entries);
+        recordDuringRebuild(() -> applyAdd(entries));
+    }
+
+    public synchronized void setQuantity(String title, int quantity) {
+        applySetQuantity(title, quantity);
+        recordDuringRebuild(() -> applySetQuantity(title, quantity));
+    }
+
+    public synchronized void removeById(String id) {
+        applyRemove(id);
+        recordDuringRebuild(() -> applyRemove(id));
+    }
+
+    public synchronized void adjustQuantity(String title, int delta) {
+        var current = snapshot;
+        var index = indexOf(current, title);
+        if (index >= 0) {
+            current.quantities[index] += delta;
+        }
+    }
+
+    public int size() {
+        return snapshot.size();
+    }
+
+    private void recordDuringRebuild(Runnable change) {
+        if (changesDuringRebuild != null) {
+            changesDuringRebuild.add(change);
+        }
+    }
+
+    // New titles are sorted on their own and merged into the current arrays: one copy per batch, and existing titles
+    // are never normalized or sorted again.
+    private void applyAdd(List<Entry> entries) {
+        var current = snapshot;
+        var fresh = new ArrayList<Entry>(entries.size());
+        for (var entry : entries) {
+            if (indexOf(current, entry.title) < 0) {
+                fresh.add(entry);
+            }
+        }
+        if (!fresh.isEmpty()) {
+            snapshot = merge(current, build(fresh));
+        }
+    }
+
+    private void applySetQuantity(String title, int quantity) {
+        var current = snapshot;
+        var index = indexOf(current, title);
+        if (index >= 0) {
+            current.quantities[index] = quantity;
+        }
+    }
+
+    private void applyRemove(String id) {
+        var current = snapshot;
+        for (int i = 0; i < current.size(); i++) {
+            if (id.equals(current.ids[i])) {
+                snapshot = without(current, i);
+                return;
+            }
+        }
+    }
+
+    static String normalize(String text) {
+        var decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    // Products without a title are left out.
+    private static List<Entry> entries(Collection<ProductEntity> products) {
+        var entries = new ArrayList<Entry>(products.size());
+        for (var product : products) {
+            if (product.title != null) {
+                entries.add(new Entry(product));
+            }
+        }
+        return entries;
+    }
+
+    // Sorts the entries in place.
+    private static Snapshot build(List<Entry> entries) {
+        entries.sort(Comparator.<Entry, String>comparing(entry -> entry.key).thenComparing(entry -> entry.title));
+
+        var keys = new String[entries.size()];
+        var titles = new String[entries.size()];
+        var ids = new String[entries.size()];
+        var quantities = new int[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            var entry = entries.get(i);
+            keys[i] = entry.key;
+            titles[i] = entry.title;
+            ids[i] = entry.id;
+            quantities[i] = entry.quantity;
+        }
+        return new Snapshot(keys, titles, ids, quantities);
+    }
+
+    private static Snapshot without(Snapshot snapshot, int index) {
+        var size = snapshot.size() - 1;
+        var removed = new Snapshot(new String[size], new String[size], new String[size], new int[size]);
+        for (int i = 0, j = 0; i < snapshot.size(); i++) {
+            if (i != index) {
+                removed.keys[j] = snapshot.keys[i];
+                removed.titles[j] = snapshot.titles[i];
+                removed.ids[j] = snapshot.ids[i];
+                removed.quantities[j] = snapshot.quantities[i];
+                j++;
+            }
+        }
+        return removed;
+    }
+
+    private static Snapshot merge(Snapshot left, Snapshot right) {
+        var size = left.size() + right.size();
+        var merged = new Snapshot(new String[size], new String[size], new String[size], new int[size]);
+        int l = 0;
+        int r = 0;
+        for (int i = 0; i < size; i++) {
+            var takeLeft = r == right.size() || (l < left.size() && compare(left, l, right.keys[r], right.titles[r]) < 0);
+            var from = takeLeft ? left : right;
+            var index = takeLeft ? l++ : r++;
+            merged.keys[i] = from.keys[index];
+            merged.titles[i] = from.titles[index];
+            merged.ids[i] = from.ids[index];
+            merged.quantities[i] = from.quantities[index];
+        }
+        return merged;
+    }
+
+    private static int indexOf(Snapshot snapshot, String title) {
+        var index = lowerBound(snapshot, normalize(title), title);
+        return index < snapshot.size() && snapshot.titles[index].equals(title) ? index : -1;
+    }
+
+    // First position whose (key, title) is not below the given one.
+    private static int lowerBound(Snapshot snapshot, String key, String title) {
+        int low = 0;
+        int high = snapshot.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(snapshot, mid, key, title) < 0) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int compare(Snapshot snapshot, int index, String key, String title) {
+        var cmp = snapshot.keys[index].compareTo(key);
+        return cmp != 0 ? cmp : snapshot.titles[index].compareTo(title);
+    }
+}
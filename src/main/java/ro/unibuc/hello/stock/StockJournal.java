@@ -0,0 +1,421 @@
+package ro.unibuc.hello.stock;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Local append-only journal of accepted stock deltas, so write-behind changes survive a crash between flushes.
+ *
+ * Records go to fixed-size segment files mapped into memory, named after their first sequence number:
+ *
+ *     int length | long sequence | long timestamp | int delta | short title length | title (UTF-8) | int CRC32
+ *
+ * A zero length marks the end of a segment; a record whose checksum does not match was torn by a crash and ends
+ * the replay of its segment. A write to the mapping survives the process dying as soon as it is made; surviving the
+ * machine dying needs a force, which a single syncer thread issues for everything appended since the previous one
+ * (group commit): awaitDurable returns once the caller's record is covered, and any number of callers share one fsync.
+ *
+ * Once a flush has reached Mongo, acknowledge records the highest flushed sequence in the checkpoint file and deletes
+ * the segments that hold nothing newer. open returns whatever is above the checkpoint. A crash between a flush reaching
+ * Mongo and its acknowledgement returns that flush once more, so the caller stores the highest sequence it applied to
+ * each product under the journal's id (StockWriteBehind does) and skips the records at or below it.
+ */
+public class StockJournal implements AutoCloseable {
+
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String ID = "id";
+
+    // length + sequence + timestamp + delta + title length + crc
+    private static final int RECORD_OVERHEAD = 4 + 8 + 8 + 4 + 2 + 4;
+
+    private static final class Segment {
+        final Path path;
+        final long firstSequence;
+        final MappedByteBuffer buffer;
+
+        Segment(Path path, long firstSequence, MappedByteBuffer buffer) {
+            this.path = path;
+            this.firstSequence = firstSequence;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * One record that was appended but not acknowledged before the journal was last closed.
+     */
+    public static final class Entry {
+        public final long sequence;
+        public final String title;
+        public final int delta;
+
+        Entry(long sequence, String title, int delta) {
+            this.sequence = sequence;
+            this.title = title;
+            this.delta = delta;
+        }
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean fsync;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private final Condition synced = lock.newCondition();
+
+    // guarded by lock
+    private final List<Segment> segments = new ArrayList<>();
+    // rolled over since the syncer's last force, which forces them before it moves durableSequence past their records
+    private final List<Segment> unforced = new ArrayList<>();
+    private Segment current;
+    private int position;
+    private long lastSequence;
+    private long durableSequence;
+    private boolean closed;
+    private boolean syncing;
+
+    private String id;
+    private Thread syncer;
+
+    public StockJournal(Path directory, int segmentSize, boolean fsync) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.fsync = fsync;
+    }
+
+    /**
+     * Opens the journal and returns every record not yet acknowledged, oldest first, for the caller to apply before
+     * accepting new writes.
+     */
+    public List<Entry> open() throws IOException {
+        Files.createDirectories(directory);
+        id = readId();
+        var acknowledged = readCheckpoint();
+        var unacknowledged = new ArrayList<Entry>();
+
+        var paths = new ArrayList<Path>();
+        try (var files = Files.list(directory)) {
+            files.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX)).forEach(paths::add);
+        }
+        paths.sort(null);
+
+        lastSequence = acknowledged;
+        for (var path : paths) {
+            try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                var crc = new CRC32();
+                while (buffer.remaining() >= RECORD_OVERHEAD) {
+                    var start = buffer.position();
+                    var length = buffer.getInt();
+                    if (length <= 0 || length > buffer.remaining() - 4) {
+                        break;
+                    }
+                    crc.reset();
+                    crc.update(buffer.slice(start + 4, length));
+                    var sequence = buffer.getLong();
+                    buffer.getLong();
+                    var delta = buffer.getInt();
+                    var title = new byte[buffer.getShort() & 0xFFFF];
+                    buffer.get(title);
+                    if (buffer.getInt() != (int) crc.getValue()) {
+                        break;
+                    }
+                    if (sequence > acknowledged) {
+                        unacknowledged.add(new Entry(sequence, new String(title, StandardCharsets.UTF_8), delta));
+                    }
+                    lastSequence = Math.max(lastSequence, sequence);
+                }
+            }
+        }
+
+        // replayed records are applied by the caller and acknowledged with this sequence; new writes start a new segment
+        for (var path : paths) {
+            // an empty segment left by a crash right after a rollover is reused as the new one below
+            if (firstSequence(path) <= lastSequence) {
+                segments.add(new Segment(path, firstSequence(path), null));
+            }
+        }
+        durableSequence = lastSequence;
+        roll();
+
+        // without fsync nothing waits on a force, so none is issued until close
+        if (fsync) {
+            syncing = true;
+            syncer = new Thread(this::sync, "stock-journal-sync");
+            syncer.setDaemon(true);
+            syncer.start();
+        }
+        return unacknowledged;
+    }
+
+    // Names this journal in what the caller stores next to the data it applied; it stays the same across restarts.
+    public String id() {
+        return id;
+    }
+
+    public long lastSequence() {
+        lock.lock();
+        try {
+            return lastSequence;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends one record and returns its sequence. The record is in the page cache on return; see awaitDurable.
+     * Throws IllegalStateException once the journal is closed or, with fsync on, once its syncer has failed.
+     */
+    public long append(String title, int delta) {
+        var titleBytes = title.getBytes(StandardCharsets.UTF_8);
+        var recordSize = RECORD_OVERHEAD + titleBytes.length;
+        if (titleBytes.length > 0xFFFF || recordSize + 4 > segmentSize) {
+            throw new IllegalArgumentException("title too long for the stock journal");
+        }
+
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("stock journal is closed");
+            }
+            // the syncer stops for good when a force fails; a record taken now could never be awaited, so the caller
+            // must refuse the change before it touches anything else
+            if (fsync && !syncing) {
+                throw new IllegalStateException("stock journal can no longer be forced to disk");
+            }
+            // always leave room for the zero length that ends the segment
+            if (position + recordSize + 4 > segmentSize) {
+                // forcing up to segmentSize bytes here would stall every writer; the syncer does it instead
+                if (fsync) {
+                    unforced.add(current);
+                }
+                roll();
+            }
+
+            var sequence = lastSequence + 1;
+            var buffer = current.buffer;
+            var start = position;
+            buffer.putLong(start + 4, sequence);
+            buffer.putLong(start + 12, System.currentTimeMillis());
+            buffer.putInt(start + 20, delta);
+            buffer.putShort(start + 24, (short) titleBytes.length);
+            buffer.put(start + 26, titleBytes);
+
+            var crc = new CRC32();
+            crc.update(buffer.slice(start + 4, recordSize - 8));
+            buffer.putInt(start + recordSize - 4, (int) crc.getValue());
+            // the length goes last, so a reader never sees a record whose body is not there yet
+            buffer.putInt(start, recordSize - 8);
+
+            position += recordSize;
+            lastSequence = sequence;
+            appended.signal();
+            return sequence;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until the record with this sequence has been forced to disk. Returns at once when fsync is off, and throws
+     * IllegalStateException when the journal was closed before the record could be forced.
+     */
+    public void awaitDurable(long sequence) {
+        if (!fsync) {
+            return;
+        }
+        lock.lock();
+        try {
+            while (durableSequence < sequence) {
+                if (!syncing) {
+                    throw new IllegalStateException("stock journal is closed");
+                }
+                synced.awaitUninterruptibly();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks every record up to this sequence as applied to Mongo and deletes the segments that hold nothing newer.
+     */
+    public void acknowledge(long sequence) {
+        var obsolete = new ArrayList<Segment>();
+        lock.lock();
+        try {
+            // a segment is covered once the next one starts at or below sequence + 1; the current one never is
+            for (int i = 0; i + 1 < segments.size() && segments.get(i + 1).firstSequence <= sequence + 1; i++) {
+                obsolete.add(segments.get(i));
+            }
+            segments.removeAll(obsolete);
+        }
+        finally {
+            lock.unlock();
+        }
+
+        try {
+            var temporary = directory.resolve(CHECKPOINT + ".tmp");
+            try (var channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                channel.write(ByteBuffer.wrap(Long.toString(sequence).getBytes(StandardCharsets.US_ASCII)));
+                channel.force(true);
+            }
+            Files.move(temporary, directory.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            for (var segment : obsolete) {
+                Files.deleteIfExists(segment.path);
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // The syncer forces what was appended before the close, so writers already waiting still get their answer.
+    @Override
+    public void close() {
+        List<Segment> remaining;
+        lock.lock();
+        try {
+            closed = true;
+            appended.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+        if (syncer != null) {
+            try {
+                syncer.join(TimeUnit.SECONDS.toMillis(5));
+            }
+            catch (InterruptedException e) {
+                // forcing below does not block on anything that can be interrupted; let the caller see it afterwards
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        lock.lock();
+        try {
+            remaining = new ArrayList<>(unforced);
+            unforced.clear();
+            if (current != null) {
+                remaining.add(current);
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+        // a no-op unless the syncer was still busy or never started; without fsync, a clean shutdown still forces
+        for (var segment : remaining) {
+            segment.buffer.force();
+        }
+    }
+
+    // Group commit: one force covers every record appended while the previous one was running.
+    private void sync() {
+        try {
+            while (true) {
+                var forcing = new ArrayList<Segment>();
+                long target;
+                lock.lock();
+                try {
+                    while (lastSequence == durableSequence && !closed) {
+                        appended.awaitUninterruptibly();
+                    }
+                    // appends stop at the close, so this ends once everything before it is forced
+                    if (lastSequence == durableSequence) {
+                        return;
+                    }
+                    forcing.addAll(unforced);
+                    unforced.clear();
+                    forcing.add(current);
+                    target = lastSequence;
+                }
+                finally {
+                    lock.unlock();
+                }
+
+                for (var segment : forcing) {
+                    segment.buffer.force();
+                }
+
+                lock.lock();
+                try {
+                    durableSequence = Math.max(durableSequence, target);
+                    synced.signalAll();
+                }
+                finally {
+                    lock.unlock();
+                }
+            }
+        }
+        finally {
+            // also when a force failed: writers still waiting must not wait forever
+            lock.lock();
+            try {
+                syncing = false;
+                synced.signalAll();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void roll() throws UncheckedIOException {
+        var firstSequence = lastSequence + 1;
+        var path = directory.resolve(String.format("%020d%s", firstSequence, SEGMENT_SUFFIX));
+        try (var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed; a new file reads as zeros, i.e. empty
+            current = new Segment(path, firstSequence, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        segments.add(current);
+        position = 0;
+    }
+
+    private String readId() throws IOException {
+        var path = directory.resolve(ID);
+        if (Files.exists(path)) {
+            return Files.readString(path, StandardCharsets.US_ASCII).trim();
+        }
+        var generated = UUID.randomUUID().toString();
+        Files.writeString(path, generated, StandardCharsets.US_ASCII);
+        return generated;
+    }
+
+    private long readCheckpoint() throws IOException {
+        var checkpoint = directory.resolve(CHECKPOINT);
+        if (!Files.exists(checkpoint)) {
+            return 0;
+        }
+        return Long.parseLong(Files.readString(checkpoint, StandardCharsets.US_ASCII).trim());
+    }
+
+    private static long firstSequence(Path path) {
+        var name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
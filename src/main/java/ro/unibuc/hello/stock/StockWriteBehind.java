@@ -0,0 +1,460 @@
+package ro.unibuc.hello.stock;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import ro.unibuc.hello.data.ProductRepository;
+import ro.unibuc.hello.data.StockDeltaOutcome;
+import ro.unibuc.hello.etag.CatalogVersion;
+import ro.unibuc.hello.metrics.ProductMetrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Optional write-behind for supply, sell and stock movements (product.stock.write-behind.enabled, off by default).
+ *
+ * Each title touched since the last flush has an accumulator holding its available stock and the delta not yet written.
+ * A sell is checked against and taken from the available stock in memory, so it can never go below zero here, and the
+ * flusher writes one coalesced $inc per title every product.stock.write-behind.flush-interval (200 ms) through
+ * applyStockDeltas. Thousands of sells of one hot product in that window become a single update of its document.
+ *
+ * The accumulators live in a ConcurrentHashMap (striped by title) and each one is guarded by its own monitor: the
+ * floor on available stock needs a compare-and-update of two fields, which an adder cannot give, and the critical
+ * section is a few arithmetic operations with no I/O.
+ *
+ * With product.stock.journal.dir set, every accepted change is first appended to a local StockJournal and the request
+ * is answered once the append is durable, so a crash loses nothing: the journal is replayed into Mongo at startup and
+ * trimmed after each successful flush. Without it, changes accepted since the last flush are lost if the process dies
+ * (a normal shutdown flushes). Reads of the product lag by up to one interval. The guard is per instance; after every flush the
+ * available stock is resynced from Mongo, and a delta Mongo still refuses (stock taken elsewhere, product deleted) is
+ * dropped and counted in product_stock_flush_rejected_number.
+ */
+@Component
+@Profile("!reactive")
+public class StockWriteBehind {
+
+    private static final Logger log = LoggerFactory.getLogger(StockWriteBehind.class);
+
+    private static final class Accumulator {
+        long available;
+        long pending;
+        // set once the flusher has dropped it from the map; writers that still hold it look the title up again
+        boolean retired;
+        // bumped by every reservation hold or release, which reaches Mongo directly; see changeDirectly
+        long directChanges;
+
+        Accumulator(long available) {
+            this.available = available;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Accumulator> accumulators = new ConcurrentHashMap<>();
+
+    // Writers share it, the flusher takes it exclusively while it drains the accumulators, so every journal record up to
+    // the sequence read under it is part of that flush and nothing after it is.
+    private final ReentrantReadWriteLock flushLock = new ReentrantReadWriteLock();
+
+    private StockJournal journal;
+
+    // Not Spring's shared scheduler: its single thread also runs the reservation sweep, the autocomplete rebuild and
+    // the metrics and checkpoint refreshes, any of which would hold the flush back for as long as it takes.
+    private ScheduledExecutorService flusher;
+
+    private final ProductRepository productRepository;
+    private final ProductMetrics productMetrics;
+    private final CatalogVersion catalogVersion;
+
+    @Value("${product.stock.write-behind.enabled:false}")
+    private boolean enabled;
+
+    @Value("${product.stock.write-behind.flush-interval:PT0.2S}")
+    private Duration flushInterval;
+
+    @Value("${product.stock.journal.dir:}")
+    private String journalDirectory;
+
+    @Value("${product.stock.journal.segment-size:16MB}")
+    private DataSize journalSegmentSize;
+
+    @Value("${product.stock.journal.fsync:true}")
+    private boolean journalFsync;
+
+    public StockWriteBehind(ProductRepository productRepository, ProductMetrics productMetrics,
+                            CatalogVersion catalogVersion) {
+        this.productRepository = productRepository;
+        this.productMetrics = productMetrics;
+        this.catalogVersion = catalogVersion;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        openJournal();
+
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "stock-write-behind-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        var interval = flushInterval.toNanos();
+        flusher.scheduleWithFixedDelay(this::scheduledFlush, interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    // Runs before the controllers take traffic: whatever the previous run accepted but never flushed reaches Mongo first.
+    // Every flush stores its last journal sequence on the products it updates, so records a flush already applied
+    // before the crash are skipped here instead of being added twice.
+    private void openJournal() {
+        if (journalDirectory.isEmpty()) {
+            return;
+        }
+        journal = new StockJournal(Path.of(journalDirectory), Math.toIntExact(journalSegmentSize.toBytes()), journalFsync);
+        try {
+            var unflushed = journal.open();
+            if (!unflushed.isEmpty()) {
+                var titles = new HashSet<String>();
+                unflushed.forEach(entry -> titles.add(entry.title));
+                var applied = productRepository.findJournalSequences(titles, journal.id());
+
+                var deltas = new HashMap<String, Integer>();
+                for (var entry : unflushed) {
+                    if (entry.sequence > applied.getOrDefault(entry.title, 0L)) {
+                        deltas.merge(entry.title, entry.delta, Integer::sum);
+                    }
+                }
+                applyStockDeltas(deltas, journal.lastSequence()).forEach((title, outcome) -> {
+                    if (outcome != StockDeltaOutcome.APPLIED) {
+                        log.warn("Dropped journaled stock delta {} of {}: {}", deltas.get(title), title, outcome);
+                        productMetrics.stockFlushRejected();
+                    }
+                });
+                log.info("Recovered unflushed stock deltas of {} products from the journal", deltas.size());
+            }
+            journal.acknowledge(journal.lastSequence());
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public StockDeltaOutcome sell(String title, int quantity) {
+        return accumulate(title, -quantity, true);
+    }
+
+    public StockDeltaOutcome supply(String title, int quantity) {
+        return accumulate(title, quantity, true);
+    }
+
+    // The movements batch: each title's net delta is accepted or refused on its own, as ProductRepository's
+    // applyStockDeltas does, and the whole batch waits for a single journal sync instead of one per title.
+    public Map<String, StockDeltaOutcome> applyStockDeltas(Map<String, Integer> deltas) {
+        var outcomes = new HashMap<String, StockDeltaOutcome>();
+        deltas.forEach((title, delta) -> outcomes.put(title, accumulate(title, delta, false)));
+        if (journal != null && outcomes.containsValue(StockDeltaOutcome.APPLIED)) {
+            // every record appended above is at or below the last sequence
+            journal.awaitDurable(journal.lastSequence());
+        }
+        return outcomes;
+    }
+
+    // Reservations move their units with ProductRepository's holdStock and releaseHold, whose hold marker is what makes
+    // a retried release harmless, so they cannot be deferred like a sell. Both return whether the units moved.
+    public boolean holdStock(String title, String holdId, int quantity) {
+        return changeDirectly(title, -quantity, () -> productRepository.holdStock(title, holdId, quantity) != null);
+    }
+
+    public boolean releaseHold(String title, String holdId, int quantity) {
+        return changeDirectly(title, quantity, () -> productRepository.releaseHold(title, holdId, quantity) != null);
+    }
+
+    // The update runs under the title's monitor, so sells see the units leave or return in the same instant as Mongo
+    // does. Units supplied since the last flush are not in Mongo yet and cannot be held until it runs.
+    private boolean changeDirectly(String title, int delta, BooleanSupplier update) {
+        while (true) {
+            var accumulator = accumulator(title);
+            if (accumulator == null) {
+                return false;
+            }
+            synchronized (accumulator) {
+                if (accumulator.retired) {
+                    continue;
+                }
+                if (accumulator.available + delta < 0 || !update.getAsBoolean()) {
+                    return false;
+                }
+                accumulator.available += delta;
+                accumulator.directChanges++;
+                return true;
+            }
+        }
+    }
+
+    private StockDeltaOutcome accumulate(String title, long delta, boolean awaitDurable) {
+        while (true) {
+            var accumulator = accumulator(title);
+            if (accumulator == null) {
+                return StockDeltaOutcome.NOT_FOUND;
+            }
+
+            long sequence = 0;
+            flushLock.readLock().lock();
+            try {
+                synchronized (accumulator) {
+                    if (accumulator.retired) {
+                        continue;
+                    }
+                    if (accumulator.available + delta < 0) {
+                        return StockDeltaOutcome.INSUFFICIENT_STOCK;
+                    }
+                    // the product stores an int; this also keeps every delta the flusher drains within one
+                    if (accumulator.available + delta > Integer.MAX_VALUE) {
+                        return StockDeltaOutcome.QUANTITY_OVERFLOW;
+                    }
+                    // throws when the journal takes no more writes, before the accumulator has changed
+                    if (journal != null) {
+                        sequence = journal.append(title, Math.toIntExact(delta));
+                    }
+                    accumulator.available += delta;
+                    accumulator.pending += delta;
+                }
+            }
+            finally {
+                flushLock.readLock().unlock();
+            }
+
+            // outside every lock, so concurrent writers wait for the same fsync instead of queueing behind each other
+            if (journal != null && awaitDurable) {
+                journal.awaitDurable(sequence);
+            }
+            return StockDeltaOutcome.APPLIED;
+        }
+    }
+
+    // The title's accumulator, loaded from Mongo if it has none; null when the product does not exist.
+    private Accumulator accumulator(String title) {
+        var accumulator = accumulators.get(title);
+        if (accumulator != null) {
+            return accumulator;
+        }
+        // loaded outside the map so a slow read never blocks other titles sharing the bin
+        var quantity = productRepository.findQuantities(List.of(title)).get(title);
+        if (quantity == null) {
+            return null;
+        }
+        var loaded = new Accumulator(quantity);
+        accumulator = accumulators.putIfAbsent(title, loaded);
+        return accumulator == null ? loaded : accumulator;
+    }
+
+    // With a journal, every record up to the sequence is in the deltas; see ProductRepository's applyStockDeltas.
+    private Map<String, StockDeltaOutcome> applyStockDeltas(Map<String, Integer> deltas, long sequence) {
+        return journal == null
+                ? productRepository.applyStockDeltas(deltas)
+                : productRepository.applyStockDeltas(deltas, journal.id(), sequence);
+    }
+
+    // When the outcome is unknown (a timeout, a lost connection), some updates may have landed anyway. With a journal,
+    // the titles they updated carry the flush's sequence and must not be queued again; without one, or when Mongo
+    // cannot tell, every title is, so those deltas are applied at least once rather than exactly once.
+    private Set<String> landedBeforeFailure(Set<String> titles, long sequence) {
+        var landed = new HashSet<String>();
+        if (journal == null) {
+            return landed;
+        }
+        try {
+            productRepository.findJournalSequences(titles, journal.id()).forEach((title, applied) -> {
+                if (applied >= sequence) {
+                    landed.add(title);
+                }
+            });
+        }
+        catch (DataAccessException e) {
+            log.warn("Could not check which stock deltas reached Mongo before the failure", e);
+        }
+        return landed;
+    }
+
+    // Only flush retires accumulators, so every title it drained still has its accumulator.
+    private void requeue(Map<String, Integer> deltas, Predicate<String> failed) {
+        deltas.forEach((title, delta) -> {
+            if (!failed.test(title)) {
+                return;
+            }
+            var accumulator = accumulators.get(title);
+            synchronized (accumulator) {
+                accumulator.pending += delta;
+            }
+        });
+    }
+
+    private void scheduledFlush() {
+        try {
+            flush();
+        }
+        catch (RuntimeException e) {
+            // an exception escaping here would cancel every later run of the executor
+            log.error("Stock flush failed, retrying with the next flush", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (flusher != null) {
+            flusher.shutdown();
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        flush();
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    public synchronized void flush() {
+        if (accumulators.isEmpty()) {
+            return;
+        }
+        var started = System.nanoTime();
+
+        var drained = new HashMap<String, Long>();
+        var directChanges = new HashMap<String, Long>();
+        var deltas = new HashMap<String, Integer>();
+        long flushedSequence = 0;
+        flushLock.writeLock().lock();
+        try {
+            for (var entry : accumulators.entrySet()) {
+                var accumulator = entry.getValue();
+                synchronized (accumulator) {
+                    if (accumulator.pending == 0) {
+                        // idle for a whole interval: forget it, the next write reloads the stock from Mongo
+                        accumulator.retired = true;
+                        accumulators.remove(entry.getKey(), accumulator);
+                    }
+                    else {
+                        drained.put(entry.getKey(), accumulator.pending);
+                        directChanges.put(entry.getKey(), accumulator.directChanges);
+                    }
+                }
+            }
+            // accumulate keeps every pending delta within an int; should one not be, this throws before anything is
+            // taken out of the accumulators, and writers are held off until they are all zeroed
+            drained.forEach((title, delta) -> deltas.put(title, Math.toIntExact(delta)));
+            drained.forEach((title, delta) -> {
+                var accumulator = accumulators.get(title);
+                synchronized (accumulator) {
+                    accumulator.pending -= delta;
+                }
+            });
+            if (journal != null) {
+                flushedSequence = journal.lastSequence();
+            }
+        }
+        finally {
+            flushLock.writeLock().unlock();
+        }
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        Map<String, StockDeltaOutcome> outcomes;
+        try {
+            outcomes = applyStockDeltas(deltas, flushedSequence);
+        }
+        catch (BulkOperationException e) {
+            // The unordered bulk write ran every update and names the failed ones by position, in the iteration order
+            // of deltas; the others have landed and must not be queued again.
+            var titles = new ArrayList<>(deltas.keySet());
+            var failed = new HashSet<String>();
+            e.getErrors().forEach(error -> failed.add(titles.get(error.getIndex())));
+            log.warn("Could not flush {} of {} stock deltas, retrying them with the next flush", failed.size(),
+                    deltas.size(), e);
+            requeue(deltas, failed::contains);
+            return;
+        }
+        catch (DataAccessException e) {
+            log.warn("Could not flush {} stock deltas, retrying with the next flush", deltas.size(), e);
+            var landed = landedBeforeFailure(deltas.keySet(), flushedSequence);
+            requeue(deltas, title -> !landed.contains(title));
+            return;
+        }
+
+        outcomes.forEach((title, outcome) -> {
+            if (outcome != StockDeltaOutcome.APPLIED) {
+                log.warn("Dropped stock delta {} of {}: {}", deltas.get(title), title, outcome);
+                productMetrics.stockFlushRejected();
+            }
+            // reads come from Mongo, which only changes now; tags handed out since the sell are for the old data
+            catalogVersion.changed(title);
+        });
+
+        if (journal != null) {
+            try {
+                journal.acknowledge(flushedSequence);
+            }
+            catch (UncheckedIOException e) {
+                // the next successful flush acknowledges past these records too
+                log.warn("Could not trim the stock journal", e);
+            }
+        }
+
+        productMetrics.stockFlushed(deltas.size(), System.nanoTime() - started);
+
+        // Past this point the deltas are in Mongo and must never be queued again. If the read fails, the accumulators
+        // keep their own view: a title written again is resynced after its next flush, an idle one is retired by it
+        // and reloaded on its next write.
+        Map<String, Integer> quantities;
+        try {
+            quantities = productRepository.findQuantities(deltas.keySet());
+        }
+        catch (DataAccessException e) {
+            log.warn("Could not resync the stock of {} flushed products, resyncing with the next flush", deltas.size(), e);
+            return;
+        }
+
+        // Mongo now holds everything flushed plus other instances' writes; keep what arrived since on top of it
+        deltas.keySet().forEach(title -> {
+            var accumulator = accumulators.get(title);
+            var quantity = quantities.get(title);
+            synchronized (accumulator) {
+                if (quantity == null) {
+                    if (accumulator.pending != 0) {
+                        productMetrics.stockFlushRejected();
+                    }
+                    accumulator.retired = true;
+                    accumulators.remove(title, accumulator);
+                }
+                else if (accumulator.directChanges == directChanges.get(title)) {
+                    accumulator.available = quantity + accumulator.pending;
+                }
+                // otherwise a hold or release may have landed after the read; the next flush resyncs this title
+            }
+        });
+    }
+}
@@ -0,0 +1,296 @@
+package ro.unibuc.hello.sync;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import jakarta.annotation.PreDestroy;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ro.unibuc.hello.data.ProductEntity;
+import ro.unibuc.hello.data.ProductRepository;
+import ro.unibuc.hello.etag.CatalogVersion;
+import ro.unibuc.hello.metrics.ProductMetrics;
+import ro.unibuc.hello.search.ProductAutocompleteIndex;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows the product collection's change stream so this instance's in-process views stay coherent with writes made
+ * by any replica: the findByTitle cache entry of a changed product is evicted, its ETag version is bumped, and the
+ * autocomplete index and the catalog size gauge are updated incrementally.
+ *
+ * The resume token of the last applied change is checkpointed to product_stream_offsets under this instance's id
+ * every product.change-stream.checkpoint, and the stream resumes from it after a reconnect or a restart. Only when
+ * the token has fallen off the oplog (or the collection was dropped) are the views reloaded in full.
+ *
+ * Change streams need a replica set; on a standalone server the listener logs once and the periodic refreshes of
+ * the index and gauge stay in charge. The gauge is also resynced periodically while the stream runs, which is cheap.
+ */
+@Component
+@Profile("!reactive")
+public class ProductChangeStream {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductChangeStream.class);
+
+    static final String OFFSETS_COLLECTION = "product_stream_offsets";
+
+    private static final int NOT_A_REPLICA_SET = 40573;
+    private static final int HISTORY_LOST = 286;
+    private static final long RETRY_MILLIS = 5000;
+
+    private final MongoTemplate mongoTemplate;
+    private final CacheManager cacheManager;
+    private final ProductAutocompleteIndex autocompleteIndex;
+    private final ProductMetrics productMetrics;
+    private final CatalogVersion catalogVersion;
+
+    @Value("${product.change-stream.enabled:true}")
+    private boolean enabled;
+
+    @Value("${product.change-stream.instance-id:local}")
+    private String instanceId;
+
+    private volatile boolean running;
+    private volatile BsonDocument resumeToken;
+    private BsonDocument checkpointedToken;
+    // inserts and deletes up to this cluster time are already in the catalog size; see resetCatalogSize
+    private BsonTimestamp catalogCountedAt;
+    private Thread worker;
+
+    public ProductChangeStream(MongoTemplate mongoTemplate, CacheManager cacheManager,
+                               ProductAutocompleteIndex autocompleteIndex, ProductMetrics productMetrics,
+                               CatalogVersion catalogVersion) {
+        this.mongoTemplate = mongoTemplate;
+        this.cacheManager = cacheManager;
+        this.autocompleteIndex = autocompleteIndex;
+        this.productMetrics = productMetrics;
+        this.catalogVersion = catalogVersion;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (!enabled || running) {
+            return;
+        }
+        running = true;
+        worker = new Thread(this::follow, "product-change-stream");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        Thread stopping;
+        synchronized (this) {
+            running = false;
+            stopping = worker;
+        }
+        if (stopping != null) {
+            stopping.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        checkpoint();
+    }
+
+    @Scheduled(fixedDelayString = "${product.change-stream.checkpoint:PT5S}")
+    public synchronized void checkpoint() {
+        var token = resumeToken;
+        if (token == null || token.equals(checkpointedToken)) {
+            return;
+        }
+        try {
+            mongoTemplate.getCollection(OFFSETS_COLLECTION).replaceOne(
+                    Filters.eq("_id", instanceId),
+                    new Document("_id", instanceId).append("token", token).append("at", new Date()),
+                    new ReplaceOptions().upsert(true));
+            checkpointedToken = token;
+        }
+        catch (MongoException e) {
+            log.warn("Could not checkpoint the product change stream", e);
+        }
+    }
+
+    private BsonDocument loadCheckpoint() {
+        try {
+            var offset = mongoTemplate.getCollection(OFFSETS_COLLECTION)
+                    .withDocumentClass(BsonDocument.class)
+                    .find(Filters.eq("_id", instanceId))
+                    .first();
+            return offset == null ? null : offset.getDocument("token", null);
+        }
+        catch (MongoException e) {
+            log.warn("Could not read the product change stream checkpoint", e);
+            return null;
+        }
+    }
+
+    private void follow() {
+        // read here rather than in start(), so an unreachable server cannot hold up the ready event
+        var checkpoint = loadCheckpoint();
+        synchronized (this) {
+            resumeToken = checkpoint;
+            checkpointedToken = checkpoint;
+        }
+
+        var collection = mongoTemplate.getCollection(mongoTemplate.getCollectionName(ProductEntity.class));
+        var pipeline = List.of(Aggregates.match(Filters.in("operationType", "insert", "update", "replace", "delete", "invalidate")));
+        // set after an invalidate: its token cannot be resumed after, only started after
+        BsonDocument startAfter = null;
+
+        while (running) {
+            var stream = collection.watch(pipeline)
+                    .fullDocument(FullDocument.UPDATE_LOOKUP)
+                    .maxAwaitTime(1, TimeUnit.SECONDS);
+            if (startAfter != null) {
+                stream.startAfter(startAfter);
+            }
+            else if (resumeToken != null) {
+                stream.resumeAfter(resumeToken);
+            }
+
+            try (var cursor = stream.cursor()) {
+                resetCatalogSize();
+                setFollowingChanges(true);
+                while (running) {
+                    var change = cursor.tryNext();
+                    if (change != null && !apply(change)) {
+                        // the server has closed this cursor; open a new stream just past the invalidate
+                        startAfter = change.getResumeToken();
+                        break;
+                    }
+                    // after an idle wait this is the post-batch token, so the checkpoint keeps up with the oplog
+                    if (cursor.getResumeToken() != null) {
+                        resumeToken = cursor.getResumeToken();
+                        startAfter = null;
+                    }
+                }
+            }
+            catch (MongoCommandException e) {
+                if (e.getErrorCode() == NOT_A_REPLICA_SET) {
+                    log.warn("MongoDB is not a replica set, product views fall back to periodic refreshes");
+                    setFollowingChanges(false);
+                    return;
+                }
+                if (e.getErrorCode() == HISTORY_LOST) {
+                    log.warn("Product change stream checkpoint is no longer in the oplog, reloading in full");
+                    resumeToken = null;
+                    reload();
+                    continue;
+                }
+                retryAfterFailure(e);
+            }
+            catch (MongoException e) {
+                retryAfterFailure(e);
+            }
+        }
+        setFollowingChanges(false);
+    }
+
+    private void retryAfterFailure(MongoException e) {
+        setFollowingChanges(false);
+        if (!running) {
+            return;
+        }
+        log.warn("Product change stream failed, resuming in {} ms", RETRY_MILLIS, e);
+        try {
+            Thread.sleep(RETRY_MILLIS);
+        }
+        catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    // Returns false on an invalidate, after which the stream has ended and must be opened again.
+    boolean apply(ChangeStreamDocument<Document> change) {
+        var cache = cacheManager.getCache(ProductRepository.PRODUCTS_CACHE);
+        switch (change.getOperationType()) {
+            case INSERT:
+            case UPDATE:
+            case REPLACE:
+                // null when the document was deleted before the update could be looked up; its delete follows
+                if (change.getFullDocument() == null) {
+                    return true;
+                }
+                var product = mongoTemplate.getConverter().read(ProductEntity.class, change.getFullDocument());
+                if (cache != null) {
+                    cache.evict(product.title);
+                }
+                autocompleteIndex.add(product);
+                autocompleteIndex.setQuantity(product.title, product.quantity);
+                catalogVersion.changed(product.title);
+                if (change.getOperationType() == OperationType.INSERT && !isCounted(change)) {
+                    productMetrics.catalogChanged(1);
+                }
+                break;
+            case DELETE:
+                // a delete only carries the _id, so the title-keyed cache is cleared as a whole; deletes are rare
+                if (cache != null) {
+                    cache.clear();
+                }
+                var id = change.getDocumentKey().get("_id");
+                autocompleteIndex.removeById(id.isObjectId() ? id.asObjectId().getValue().toHexString() : id.asString().getValue());
+                if (!isCounted(change)) {
+                    productMetrics.catalogChanged(-1);
+                }
+                catalogVersion.changedAll();
+                break;
+            case INVALIDATE:
+                // the collection was dropped or renamed: the stream ends here, start over from the current state
+                resumeToken = null;
+                reload();
+                return false;
+            default:
+                break;
+        }
+        return true;
+    }
+
+    // A resumed stream first replays the changes since the checkpoint, and the inserts and deletes among them are
+    // already in any count taken since. So the count is taken again whenever the stream opens, after reading the
+    // cluster time: every change at or before that time is in the count and leaves the gauge alone.
+    private void resetCatalogSize() {
+        var reply = mongoTemplate.getDb().runCommand(new BsonDocument("ping", new BsonInt32(1)), BsonDocument.class);
+        catalogCountedAt = reply.isTimestamp("operationTime") ? reply.getTimestamp("operationTime") : null;
+        productMetrics.refreshCatalogSize();
+    }
+
+    private boolean isCounted(ChangeStreamDocument<Document> change) {
+        return catalogCountedAt != null && change.getClusterTime() != null
+                && change.getClusterTime().compareTo(catalogCountedAt) <= 0;
+    }
+
+    private void reload() {
+        var cache = cacheManager.getCache(ProductRepository.PRODUCTS_CACHE);
+        if (cache != null) {
+            cache.clear();
+        }
+        autocompleteIndex.rebuild();
+        productMetrics.refreshCatalogSize();
+        catalogVersion.changedAll();
+    }
+
+    private void setFollowingChanges(boolean followingChanges) {
+        autocompleteIndex.setFollowingChanges(followingChanges);
+        productMetrics.setFollowingChanges(followingChanges);
+        catalogVersion.setFollowingChanges(followingChanges);
+    }
+}
@@ -3,7 +3,7 @@ package ro.unibuc.hello;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+@SpringBootTest(properties = "mongodb.indexes.create=false")
 class HelloApplicationTests {
 
 	//@MockBean
@@ -1,31 +1,96 @@
 package ro.unibuc.hello.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.data.domain.Sort;
 import ro.unibuc.hello.data.ProductEntity;
 import ro.unibuc.hello.data.ProductRepository;
+import ro.unibuc.hello.data.ReservationEntity;
+import ro.unibuc.hello.data.ReservationRepository;
+import ro.unibuc.hello.data.ReservationStatus;
+import ro.unibuc.hello.data.StockDeltaOutcome;
 import ro.unibuc.hello.dto.AddProductDto;
 import ro.unibuc.hello.dto.ProductAddStockDto;
+import ro.unibuc.hello.dto.ProductReserveStockDto;
 import ro.unibuc.hello.dto.ProductSellStockDto;
+import ro.unibuc.hello.dto.StockMovementDto;
+import ro.unibuc.hello.etag.CatalogVersion;
+import ro.unibuc.hello.etag.ConditionalGetConfig;
+import ro.unibuc.hello.etag.ConditionalGetInterceptor;
 import ro.unibuc.hello.exception.BadRequestException;
+import ro.unibuc.hello.exception.ConflictException;
 import ro.unibuc.hello.exception.NoContentException;
 import ro.unibuc.hello.exception.NotFoundException;
-
+import ro.unibuc.hello.metrics.ProductMetrics;
+import ro.unibuc.hello.reservation.ReservationStock;
+import ro.unibuc.hello.search.ProductAutocompleteIndex;
+import ro.unibuc.hello.stock.StockWriteBehind;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
 
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.*;
 
-@SpringBootTest
+@SpringBootTest(properties = "mongodb.indexes.create=false")
 class ProductControllerTest {
 
     @Mock
     ProductRepository mockRepository;
 
+    @Mock
+    ReservationRepository reservationRepository;
+
+    @Mock
+    StockWriteBehind stockWriteBehind;
+
+    @Mock
+    ReservationStock reservationStock;
+
+    @Spy
+    CatalogVersion catalogVersion = new CatalogVersion();
+
+    MeterRegistry metricsRegistry = new SimpleMeterRegistry();
+
+    @Spy
+    ProductMetrics productMetrics = new ProductMetrics(metricsRegistry);
+
+    @Spy
+    ObjectMapper objectMapper = new ObjectMapper().registerModule(new ParameterNamesModule());
+
+    @Spy
+    MappingJackson2CborHttpMessageConverter cborConverter = new MappingJackson2CborHttpMessageConverter(
+            new ObjectMapper(new CBORFactory()).registerModule(new ParameterNamesModule()));
+
+    @Spy
+    ProductAutocompleteIndex autocompleteIndex = new ProductAutocompleteIndex();
+
     @InjectMocks
     ProductController productController = new ProductController();
 
@@ -56,20 +121,20 @@ class ProductControllerTest {
 
     @Test
     void getAllProducts_ReturnsInPage() {
-        when(mockRepository.findAll()).thenReturn(Arrays.asList(new ProductEntity("4", "24", 3),
-                new ProductEntity("1", "25", 2),
-                new ProductEntity("12", "26", 1)));
+        when(mockRepository.findPage(any(), eq(0), eq(5))).thenReturn(Arrays.asList(new ProductEntity("1", "25", 2),
+                new ProductEntity("12", "26", 1),
+                new ProductEntity("4", "24", 3)));
 
         var res = productController.getAllProducts("title_asc", 0, 5);
 
         Assertions.assertEquals(3, res.size());
+        Assertions.assertEquals("1", res.get(0).title);
     }
 
     @Test
     void getAllProducts_ReturnsOutOfPage() {
-        when(mockRepository.findAll()).thenReturn(Arrays.asList(new ProductEntity("4", "24", 3),
-                new ProductEntity("1", "25", 2),
-                new ProductEntity("12", "26", 1)));
+        when(mockRepository.findPage(any(), eq(1), eq(5))).thenReturn(List.of());
+        when(mockRepository.isCatalogEmpty()).thenReturn(false);
 
         var res = productController.getAllProducts("title_desc", 1, 5);
 
@@ -77,58 +142,110 @@ class ProductControllerTest {
     }
 
     @Test
-    void getAllProducts_ReturnsWithinPage() {
-        when(mockRepository.findAll()).thenReturn(Arrays.asList(new ProductEntity("4", "24", 3),
-                new ProductEntity("1", "25", 2),
-                new ProductEntity("12", "26", 1)));
+    void getAllProductFields_ProjectsSelectedFields() {
+        when(mockRepository.findPageFields(any(), eq(0), eq(5), eq(List.of("title", "quantity"))))
+                .thenReturn(List.of(new Document("title", "1").append("quantity", 2)));
 
-        var res = productController.getAllProducts("description_asc", 0, 1);
+        var res = productController.getAllProductFields("title_asc", 0, 5, "quantity,title");
 
         Assertions.assertEquals(1, res.size());
+        Assertions.assertEquals(List.of("title", "quantity"), List.copyOf(res.get(0).keySet()));
+        verify(mockRepository, never()).findPage(any(), anyInt(), anyInt());
     }
 
     @Test
-    void getAllProducts_ReturnsSortedByDescription() {
-        when(mockRepository.findAll()).thenReturn(Arrays.asList(new ProductEntity("4", "24", 3),
-                new ProductEntity("1", "25", 2),
-                new ProductEntity("12", "26", 1)));
+    void getAllProductFields_RejectsUnknownField() {
+        try {
+            productController.getAllProductFields("title_asc", 0, 5, "title,price");
+            Assertions.fail();
+        }
+        catch (Exception e){
+            Assertions.assertEquals(BadRequestException.class, e.getClass());
+            Assertions.assertEquals("bad argument", ((BadRequestException)e).getProblems().get("fields"));
+        }
+    }
 
-        var res = productController.getAllProducts("description_desc", 0, 5);
+    @Test
+    void getProductFields_TrimsBody() {
+        when(mockRepository.findByTitle("Test")).thenReturn(new ProductEntity("1", "2", 3));
 
-        Assertions.assertEquals("26", res.get(0).description);
-        Assertions.assertEquals("25", res.get(1).description);
-        Assertions.assertEquals("24", res.get(2).description);
+        var res = productController.getProductFields("Test", "title,quantity");
+
+        Assertions.assertEquals(Map.of("title", "1", "quantity", 3), res);
     }
 
     @Test
-    void getAllProducts_ReturnsSortedByQuantityAsc() {
-        when(mockRepository.findAll()).thenReturn(Arrays.asList(new ProductEntity("4", "24", 3),
-                new ProductEntity("1", "25", 2),
-                new ProductEntity("12", "26", 1)));
+    void conditionalGet_AnswersNotModifiedUntilProductChanges() {
+        var interceptor = new ConditionalGetInterceptor(catalogVersion, productMetrics, true, "no-cache");
+        // as with the change stream running, so tags do not roll over with the clock mid-test
+        catalogVersion.setFollowingChanges(true);
+
+        var first = productRequest(null);
+        Assertions.assertTrue(interceptor.preHandle(first, new MockHttpServletResponse(), null));
+        var tag = (String) first.getAttribute(ConditionalGetConfig.ETAG_ATTRIBUTE);
+
+        var unchanged = new MockHttpServletResponse();
+        Assertions.assertFalse(interceptor.preHandle(productRequest(tag), unchanged, null));
+        Assertions.assertEquals(304, unchanged.getStatus());
+        Assertions.assertEquals(tag, unchanged.getHeader("ETag"));
+
+        when(mockRepository.sellStock("Test", 1)).thenReturn(new ProductEntity("Test", "desc", 2));
+        productController.sellProductStock(new ProductSellStockDto("Test", 1));
+
+        Assertions.assertTrue(interceptor.preHandle(productRequest(tag), new MockHttpServletResponse(), null));
+        Assertions.assertEquals(1, metricsRegistry.counter("product_conditional_get", "endpoint", "Product", "result", "not_modified").count());
+        Assertions.assertEquals(2, metricsRegistry.counter("product_conditional_get", "endpoint", "Product", "result", "modified").count());
+    }
 
-        var res = productController.getAllProducts("quantity_asc", 0, 5);
+    private static MockHttpServletRequest productRequest(String ifNoneMatch) {
+        var request = new MockHttpServletRequest("GET", "/product");
+        request.setQueryString("name=Test");
+        request.setParameter("name", "Test");
+        if (ifNoneMatch != null) {
+            request.addHeader("If-None-Match", ifNoneMatch);
+        }
+        return request;
+    }
+
+    @Test
+    void getAllProducts_PassesPageToRepository() {
+        productController.getAllProducts("description_asc", 3, 1);
 
-        Assertions.assertEquals("26", res.get(0).description);
-        Assertions.assertEquals("25", res.get(1).description);
-        Assertions.assertEquals("24", res.get(2).description);
+        verify(mockRepository, times(1)).findPage(any(), eq(3), eq(1));
     }
 
     @Test
-    void getAllProducts_ReturnsSortedByQuantityDesc() {
-        when(mockRepository.findAll()).thenReturn(Arrays.asList(new ProductEntity("4", "24", 3),
-                new ProductEntity("1", "25", 2),
-                new ProductEntity("12", "26", 1)));
+    void getAllProducts_SortsByDescription() {
+        productController.getAllProducts("description_desc", 0, 5);
 
-        var res = productController.getAllProducts("quantity_desc", 0, 5);
+        verify(mockRepository, times(1)).findPage(eq(Sort.by(Sort.Direction.DESC, "description", "id")), eq(0), eq(5));
+    }
+
+    @Test
+    void getAllProducts_SortsByQuantityAsc() {
+        productController.getAllProducts("quantity_asc", 0, 5);
 
-        Assertions.assertEquals("4", res.get(0).title);
-        Assertions.assertEquals("1", res.get(1).title);
-        Assertions.assertEquals("12", res.get(2).title);
+        verify(mockRepository, times(1)).findPage(eq(Sort.by(Sort.Direction.ASC, "quantity", "id")), eq(0), eq(5));
+    }
+
+    @Test
+    void getAllProducts_SortsByQuantityDesc() {
+        productController.getAllProducts("quantity_desc", 0, 5);
+
+        verify(mockRepository, times(1)).findPage(eq(Sort.by(Sort.Direction.DESC, "quantity", "id")), eq(0), eq(5));
+    }
+
+    @Test
+    void getAllProducts_SortsByIdWhenSortEmpty() {
+        productController.getAllProducts("", 0, 5);
+
+        verify(mockRepository, times(1)).findPage(eq(Sort.by("id")), eq(0), eq(5));
     }
 
     @Test
     public void getAllProducts_ThrowsNoProducts() {
-        when(mockRepository.findAll()).thenReturn(List.of());
+        when(mockRepository.findPage(any(), anyInt(), anyInt())).thenReturn(List.of());
+        when(mockRepository.isCatalogEmpty()).thenReturn(true);
 
         try {
             var res = productController.getAllProducts("quantity_desc", 0, 5);
@@ -142,10 +259,6 @@ class ProductControllerTest {
 
     @Test
     public void getAllProducts_ThrowsBadSort() {
-        when(mockRepository.findAll()).thenReturn(Arrays.asList(new ProductEntity("4", "24", 3),
-                new ProductEntity("1", "25", 2),
-                new ProductEntity("12", "26", 1)));
-
         try {
             var res = productController.getAllProducts("quasc", 0, 5);
             Assertions.fail();
@@ -155,17 +268,171 @@ class ProductControllerTest {
             Assertions.assertEquals("Bad Request", e.getMessage());
             Assertions.assertNotNull(((BadRequestException)e).getProblems());
         }
+        verify(mockRepository, never()).findPage(any(), anyInt(), anyInt());
+    }
+
+    @Test
+    public void getAllProducts_ThrowsBadPage() {
+        try {
+            var res = productController.getAllProducts("title_asc", -1, 5);
+            Assertions.fail();
+        }
+        catch (Exception e){
+            Assertions.assertEquals(BadRequestException.class, e.getClass());
+            Assertions.assertEquals("Bad Request", e.getMessage());
+        }
+    }
+
+    @Test
+    void scrollProducts_ReturnsCursorForFullPage() {
+        var last = new ProductEntity("b", "desc", 2);
+        last.id = "6140b7f9e4b0a1a2b3c4d5e6";
+        when(mockRepository.findPageAfter(any(), isNull(), isNull(), eq(2)))
+                .thenReturn(Arrays.asList(new ProductEntity("a", "desc", 1), last));
+
+        var res = productController.scrollProducts("title_asc", null, 2);
+
+        Assertions.assertEquals(2, res.products.size());
+        Assertions.assertNotNull(res.next);
+
+        productController.scrollProducts("title_asc", res.next, 2);
+
+        verify(mockRepository, times(1)).findPageAfter(eq(Sort.Order.asc("title")), eq("b"), eq(last.id), eq(2));
+    }
+
+    @Test
+    void scrollProducts_NoCursorOnLastPage() {
+        when(mockRepository.findPageAfter(any(), any(), any(), eq(5)))
+                .thenReturn(List.of(new ProductEntity("a", "desc", 1)));
+
+        var res = productController.scrollProducts("quantity_desc", null, 5);
+
+        Assertions.assertNull(res.next);
+    }
+
+    @Test
+    void scrollProducts_ThrowsCursorFromOtherSort() {
+        var last = new ProductEntity("b", "desc", 2);
+        last.id = "6140b7f9e4b0a1a2b3c4d5e6";
+        var cursor = ProductCursor.encode("title_asc", "title", last);
+
+        try {
+            productController.scrollProducts("title_desc", cursor, 2);
+            Assertions.fail();
+        }
+        catch (Exception e){
+            Assertions.assertEquals(BadRequestException.class, e.getClass());
+            Assertions.assertEquals("Bad Request", e.getMessage());
+        }
+    }
+
+    @Test
+    void scrollProducts_ThrowsBadCursor() {
+        try {
+            productController.scrollProducts("title_asc", "not-a-cursor", 2);
+            Assertions.fail();
+        }
+        catch (Exception e){
+            Assertions.assertEquals(BadRequestException.class, e.getClass());
+            Assertions.assertEquals("Bad Request", e.getMessage());
+        }
+    }
+
+    @Test
+    void searchProducts_TextWithoutSortIsByRelevance() {
+        when(mockRepository.searchText("blue mug", Sort.unsorted(), 0, 10)).thenReturn(List.of(new ProductEntity("Blue mug", "ceramic", 3)));
+
+        var res = productController.searchProducts("blue mug", "text", "", 0, 10);
+
+        Assertions.assertEquals(1, res.size());
+        Assertions.assertEquals("Blue mug", res.get(0).title);
+    }
+
+    @Test
+    void searchProducts_PrefixUsesFieldSort() {
+        productController.searchProducts("blu", "prefix", "quantity_desc", 2, 10);
+
+        verify(mockRepository, times(1)).searchPrefix("blu", Sort.by(Sort.Direction.DESC, "quantity", "id"), 2, 10);
+        verify(mockRepository, never()).searchText(anyString(), any(), anyInt(), anyInt());
+    }
+
+    @Test
+    void searchProducts_ThrowsBadMode() {
+        try {
+            productController.searchProducts("blu", "fuzzy", "", 0, 10);
+            Assertions.fail();
+        }
+        catch (Exception e){
+            Assertions.assertEquals(BadRequestException.class, e.getClass());
+            Assertions.assertEquals("bad argument", ((BadRequestException)e).getProblems().get("mode"));
+        }
+    }
+
+    @Test
+    void autocompleteProducts_MatchesNormalizedPrefixInOrder() {
+        var fresh = new ProductEntity("Écran mat", "screen", 4);
+        fresh.id = "3";
+        autocompleteIndex.replaceAll(List.of(
+                new ProductEntity("ecran lucios", "screen", 2),
+                new ProductEntity("Echer", "tool", 1),
+                new ProductEntity("Tastatura", "keyboard", 9)));
+        autocompleteIndex.add(fresh);
+
+        var res = productController.autocompleteProducts("ECR", 10);
+
+        Assertions.assertEquals(2, res.size());
+        Assertions.assertEquals("ecran lucios", res.get(0).title);
+        Assertions.assertEquals("Écran mat", res.get(1).title);
+        Assertions.assertEquals("3", res.get(1).id);
+        Assertions.assertEquals(1, productController.autocompleteProducts("e", 1).size());
+    }
+
+    @Test
+    void autocompleteProducts_FollowsAddAndStockChanges() {
+        when(mockRepository.addStock("Lamp", 5)).thenReturn(new ProductEntity("Lamp", "desk lamp", 15));
+
+        productController.addProduct(new AddProductDto("Lamp", "desk lamp", 10));
+        Assertions.assertEquals(10, productController.autocompleteProducts("la", 10).get(0).quantity);
+
+        productController.addProductStock(new ProductAddStockDto("Lamp", 5));
+        Assertions.assertEquals(15, productController.autocompleteProducts("la", 10).get(0).quantity);
+    }
+
+    @Test
+    void autocompleteProducts_ThrowsBadLimit() {
+        try {
+            productController.autocompleteProducts("la", 0);
+            Assertions.fail();
+        }
+        catch (Exception e){
+            Assertions.assertEquals(BadRequestException.class, e.getClass());
+            Assertions.assertEquals("bad argument", ((BadRequestException)e).getProblems().get("limit"));
+        }
+    }
+
+    @Test
+    void exportProducts_WritesOneProductPerLine() throws Exception {
+        when(mockRepository.streamAll(Sort.by(Sort.Direction.ASC, "title", "id"))).thenReturn(Stream.of(
+                new ProductEntity("a", "first", 1),
+                new ProductEntity("b", "second", 2)));
+
+        var out = new ByteArrayOutputStream();
+        productController.exportProducts("title_asc").getBody().writeTo(out);
+
+        var lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        Assertions.assertEquals(2, lines.length);
+        Assertions.assertEquals("a", objectMapper.readTree(lines[0]).get("title").asText());
+        Assertions.assertEquals(2, objectMapper.readTree(lines[1]).get("quantity").asInt());
     }
 
     @Test
     void addProductStock_Saves() {
-        var product = new ProductEntity("4", "24", 3);
-        when(mockRepository.findByTitle(anyString())).thenReturn(product);
+        when(mockRepository.addStock("4", 10)).thenReturn(new ProductEntity("4", "24", 13));
 
         productController.addProductStock(new ProductAddStockDto("4", 10));
 
-        verify(mockRepository, times(1)).save(any());
-        Assertions.assertEquals(13, product.quantity);
+        verify(mockRepository, times(1)).addStock("4", 10);
+        verify(mockRepository, never()).save(any());
     }
 
     @Test
@@ -206,11 +473,26 @@ class ProductControllerTest {
 
     @Test
     void sellProductStock() {
-        var product = new ProductEntity("title", "desc", 3);
-        when(mockRepository.findByTitle(anyString())).thenReturn(product);
+        when(mockRepository.sellStock("title", 1)).thenReturn(new ProductEntity("title", "desc", 2));
         productController.sellProductStock(new ProductSellStockDto("title", 1));
-        verify(mockRepository, times(1)).save(any());
-        Assertions.assertEquals(2, product.quantity);
+        verify(mockRepository, times(1)).sellStock("title", 1);
+        verify(mockRepository, never()).save(any());
+    }
+
+    @Test
+    void sellProductStock_InsufficientStock() {
+        when(mockRepository.sellStock("title", 5)).thenReturn(null);
+        when(mockRepository.existsByTitle("title")).thenReturn(true);
+
+        try {
+            productController.sellProductStock(new ProductSellStockDto("title", 5));
+            Assertions.fail();
+        }
+        catch (Exception e){
+            Assertions.assertEquals(BadRequestException.class, e.getClass());
+            Assertions.assertEquals("insufficient stock", ((BadRequestException)e).getProblems().get("quantity"));
+        }
+        Assertions.assertEquals(1, metricsRegistry.counter("product_stock_negative_number", "endpoint", "Product").count());
     }
 
     @Test
@@ -249,12 +531,261 @@ class ProductControllerTest {
         }
     }
 
+    @Test
+    void sellProductStock_WriteBehind() {
+        when(stockWriteBehind.isEnabled()).thenReturn(true);
+        when(stockWriteBehind.sell("title", 1)).thenReturn(StockDeltaOutcome.APPLIED);
+
+        productController.sellProductStock(new ProductSellStockDto("title", 1));
+
+        verify(stockWriteBehind, times(1)).sell("title", 1);
+        verify(mockRepository, never()).sellStock(anyString(), anyInt());
+    }
+
+    @Test
+    void sellProductStock_WriteBehind_InsufficientStock() {
+        when(stockWriteBehind.isEnabled()).thenReturn(true);
+        when(stockWriteBehind.sell("title", 5)).thenReturn(StockDeltaOutcome.INSUFFICIENT_STOCK);
+
+        try {
+            productController.sellProductStock(new ProductSellStockDto("title", 5));
+            Assertions.fail();
+        }
+        catch (Exception e){
+            Assertions.assertEquals(BadRequestException.class, e.getClass());
+            Assertions.assertEquals("insufficient stock", ((BadRequestException)e).getProblems().get("quantity"));
+        }
+        Assertions.assertEquals(1, metricsRegistry.counter("product_stock_negative_number", "endpoint", "Product").count());
+    }
+
+    @Test
+    void addProductStock_WriteBehind_NotFound() {
+        when(stockWriteBehind.isEnabled()).thenReturn(true);
+        when(stockWriteBehind.supply("title", 1)).thenReturn(StockDeltaOutcome.NOT_FOUND);
+
+        try {
+            productController.addProductStock(new ProductAddStockDto("title", 1));
+            Assertions.fail();
+        }
+        catch (Exception e){
+            Assertions.assertEquals(BadRequestException.class, e.getClass());
+        }
+        verify(mockRepository, never()).addStock(anyString(), anyInt());
+    }
+
+    @Test
+    void addProductStock_WriteBehind_Overflow() {
+        when(stockWriteBehind.isEnabled()).thenReturn(true);
+        when(stockWriteBehind.supply("title", Integer.MAX_VALUE)).thenReturn(StockDeltaOutcome.QUANTITY_OVERFLOW);
+
+        try {
+            productController.addProductStock(new ProductAddStockDto("title", Integer.MAX_VALUE));
+            Assertions.fail();
+        }
+        catch (BadRequestException e) {
+            Assertions.assertEquals(Map.of("quantity", "overflow"), e.getProblems());
+        }
+        verify(autocompleteIndex, never()).adjustQuantity(anyString(), anyInt());
+    }
+
+    @Test
+    void reserveProductStock_HoldsUnits() {
+        when(reservationStock.hold(any(ReservationEntity.class))).thenReturn(StockDeltaOutcome.APPLIED);
+
+        var res = productController.reserveProductStock(new ProductReserveStockDto("title", 2));
+
+        var inOrder = inOrder(reservationRepository, reservationStock);
+        inOrder.verify(reservationRepository).insert(any(ReservationEntity.class));
+        inOrder.verify(reservationStock).hold(any(ReservationEntity.class));
+        verify(reservationRepository, never()).deleteById(any());
+        Assertions.assertEquals("title", res.title);
+        Assertions.assertEquals(2, res.quantity);
+        Assertions.assertEquals("HELD", res.status);
+        Assertions.assertTrue(res.expiresAt.isAfter(Instant.now()));
+    }
+
+    @Test
+    void reserveProductStock_InsufficientStock() {
+        when(reservationStock.hold(any(ReservationEntity.class))).thenReturn(StockDeltaOutcome.INSUFFICIENT_STOCK);
+
+        try {
+            productController.reserveProductStock(new ProductReserveStockDto("title", 5));
+            Assertions.fail();
+        }
+        catch (Exception e){
+            Assertions.assertEquals(BadRequestException.class, e.getClass());
+            Assertions.assertEquals("insufficient stock", ((BadRequestException)e).getProblems().get("quantity"));
+        }
+        // the reservation never held anything, so it is dropped rather than left to expire
+        verify(reservationRepository, times(1)).deleteById(any());
+    }
+
+    @Test
+    void confirmReservation_ConflictsWhenExpired() {
+        var expired = new ReservationEntity("title", 2, Instant.now().minusSeconds(1));
+        expired.status = ReservationStatus.EXPIRED;
+        when(reservationRepository.close(eq("r1"), eq(ReservationStatus.CONFIRMED), any())).thenReturn(null);
+        when(reservationRepository.findById("r1")).thenReturn(Optional.of(expired));
+
+        try {
+            productController.confirmReservation("r1");
+            Assertions.fail();
+        }
+        catch (Exception e){
+            Assertions.assertEquals(ConflictException.class, e.getClass());
+        }
+    }
+
+    @Test
+    void cancelReservation_ReturnsUnits() {
+        var cancelled = new ReservationEntity("title", 2, Instant.now());
+        when(reservationRepository.close(eq("r1"), eq(ReservationStatus.CANCELLED), any())).thenReturn(cancelled);
+
+        productController.cancelReservation("r1");
+
+        verify(reservationStock, times(1)).settle(eq(cancelled), any(Instant.class));
+    }
+
+    @Test
+    void cancelReservation_NotFound() {
+        when(reservationRepository.findById("r1")).thenReturn(Optional.empty());
+
+        try {
+            productController.cancelReservation("r1");
+            Assertions.fail();
+        }
+        catch (Exception e){
+            Assertions.assertEquals(NotFoundException.class, e.getClass());
+        }
+        verify(reservationStock, never()).settle(any(), any());
+    }
+
+    @Test
+    void applyStockMovements_CoalescesPerTitle() {
+        when(mockRepository.applyStockDeltas(any())).thenReturn(Map.of(
+                "a", StockDeltaOutcome.APPLIED,
+                "b", StockDeltaOutcome.INSUFFICIENT_STOCK,
+                "c", StockDeltaOutcome.NOT_FOUND));
+
+        var res = productController.applyStockMovements(Arrays.asList(
+                new StockMovementDto("supply", "a", 5),
+                new StockMovementDto("sell", "b", 1),
+                new StockMovementDto("sell", "a", 2),
+                new StockMovementDto("supply", "c", 1),
+                new StockMovementDto("return", "a", 1),
+                new StockMovementDto("sell", "a", 0)));
+
+        verify(mockRepository, times(1)).applyStockDeltas(Map.of("a", 3, "b", -1, "c", 1));
+        Assertions.assertEquals(6, res.size());
+        Assertions.assertEquals("applied", res.get(0).status);
+        Assertions.assertEquals("insufficient stock", res.get(1).status);
+        Assertions.assertEquals("applied", res.get(2).status);
+        Assertions.assertEquals("not found", res.get(3).status);
+        Assertions.assertEquals("bad type", res.get(4).status);
+        Assertions.assertEquals("negative", res.get(5).status);
+    }
+
+    @Test
+    void applyStockMovements_WriteBehind() {
+        when(stockWriteBehind.isEnabled()).thenReturn(true);
+        when(stockWriteBehind.applyStockDeltas(any())).thenReturn(Map.of("a", StockDeltaOutcome.APPLIED));
+
+        var res = productController.applyStockMovements(List.of(new StockMovementDto("sell", "a", 2)));
+
+        verify(stockWriteBehind, times(1)).applyStockDeltas(Map.of("a", -2));
+        verify(mockRepository, never()).applyStockDeltas(any());
+        Assertions.assertEquals("applied", res.get(0).status);
+    }
+
+    @Test
+    void applyStockMovements_BodyMissing() {
+        try {
+            productController.applyStockMovements(List.of());
+            Assertions.fail();
+        }
+        catch (Exception e){
+            Assertions.assertEquals(BadRequestException.class, e.getClass());
+            Assertions.assertEquals("Bad Request", e.getMessage());
+        }
+    }
+
+    @Test
+    void importProductsNdjson_InsertsInChunksAndReportsRows() throws Exception {
+        ReflectionTestUtils.setField(productController, "importChunkSize", 2);
+        when(mockRepository.insertBatch(any())).thenReturn(Map.of(), Map.of(0, "duplicate"));
+        var body = String.join("\n",
+                "{\"title\":\"a\",\"description\":\"d\",\"quantity\":1}",
+                "{\"title\":\"b\",\"description\":\"d\",\"quantity\":-1}",
+                "not json",
+                "{\"title\":\"c\",\"description\":\"d\",\"quantity\":3}",
+                "",
+                "{\"title\":\"a\",\"description\":\"d\",\"quantity\":4}");
+
+        var res = productController.importProductsNdjson(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+
+        verify(mockRepository, times(2)).insertBatch(any());
+        Assertions.assertEquals(2, res.imported);
+        Assertions.assertEquals(2, metricsRegistry.get("product_import_rows_number").counter().count());
+        Assertions.assertEquals(3, res.failed);
+        Assertions.assertEquals(2, res.failures.get(0).row);
+        Assertions.assertEquals("negative", res.failures.get(0).problem);
+        Assertions.assertEquals(3, res.failures.get(1).row);
+        Assertions.assertEquals("malformed", res.failures.get(1).problem);
+        Assertions.assertEquals(6, res.failures.get(2).row);
+        Assertions.assertEquals("duplicate", res.failures.get(2).problem);
+    }
+
+    @Test
+    void importProductsBinary_ReadsCborArray() throws Exception {
+        var body = cborConverter.getObjectMapper().writeValueAsBytes(List.of(
+                new AddProductDto("a", "d", 1),
+                new AddProductDto("b", "d", -1),
+                new AddProductDto("c", "d", 3)));
+
+        var res = productController.importProductsBinary(new ByteArrayInputStream(body), MediaType.APPLICATION_CBOR);
+
+        verify(mockRepository, times(1)).insertBatch(any());
+        Assertions.assertEquals(2, res.imported);
+        Assertions.assertEquals(1, res.failed);
+        Assertions.assertEquals(2, res.failures.get(0).row);
+        Assertions.assertEquals("negative", res.failures.get(0).problem);
+    }
+
+    @Test
+    void parseCsvRow_HandlesHeaderAndQuotes() {
+        Assertions.assertNull(ProductController.parseCsvRow(1, "title,description,quantity"));
+
+        var product = ProductController.parseCsvRow(2, "\"Cafea, boabe\",\"spune \"\"da\"\"\", 12");
+
+        Assertions.assertEquals("Cafea, boabe", product.title);
+        Assertions.assertEquals("spune \"da\"", product.description);
+        Assertions.assertEquals(12, product.quantity);
+    }
+
     @Test
     void addProduct() {
         var product = new AddProductDto("title", "desc", 10);
         productController.addProduct(product);
 
-        verify(mockRepository, times(1)).save(any());
+        verify(mockRepository, times(1)).insert(any(ProductEntity.class));
+        verify(mockRepository, never()).save(any());
+        Assertions.assertEquals(1, productMetrics.catalogSize());
+        Assertions.assertEquals(1, metricsRegistry.get("product_count_number").gauge().value());
+    }
+
+    @Test
+    void addProduct_ThrowsConflict() {
+        when(mockRepository.insert(any(ProductEntity.class))).thenThrow(new DuplicateKeyException("E11000"));
+
+        try {
+            productController.addProduct(new AddProductDto("title", "desc", 10));
+            Assertions.fail();
+        }
+        catch (Exception e){
+            Assertions.assertEquals(ConflictException.class, e.getClass());
+            Assertions.assertEquals("Conflict", e.getMessage());
+        }
+        Assertions.assertEquals(0, productMetrics.catalogSize());
     }
 
     @Test
@@ -1,11 +1,13 @@
 package ro.unibuc.hello.controller;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Order;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
 import ro.unibuc.hello.data.ProductEntity;
 import ro.unibuc.hello.data.ProductRepository;
 import ro.unibuc.hello.dto.AddProductDto;
@@ -14,6 +16,13 @@ import ro.unibuc.hello.dto.ProductSellStockDto;
 import ro.unibuc.hello.exception.BadRequestException;
 import ro.unibuc.hello.exception.NotFoundException;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
 @SpringBootTest
 public class ProductControllerTestIT {
 
@@ -23,6 +32,12 @@ public class ProductControllerTestIT {
     @Autowired
     ProductRepository productRepository;
 
+    @Autowired
+    CacheManager cacheManager;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
     @BeforeEach
     public void setUp() {
         var x = productRepository.findByTitle("Nu Este");
@@ -103,4 +118,112 @@ public class ProductControllerTestIT {
         }
     }
 
+    @Test
+    @Order(7)
+    void getAllProducts_SortsCaseInsensitive() {
+        var lowercase = productRepository.save(new ProductEntity("alfa", "desc", 1));
+        try {
+            var titles = productController.getAllProducts("title_asc", 0, 1000).stream()
+                    .map(p -> p.title)
+                    .collect(Collectors.toList());
+
+            Assertions.assertTrue(titles.indexOf("alfa") < titles.indexOf("Este"));
+        }
+        finally {
+            productRepository.delete(lowercase);
+        }
+    }
+
+    @Test
+    @Order(8)
+    void scrollProducts_StableUnderConcurrentInserts() throws Exception {
+        var seeded = new ArrayList<String>();
+        for (int i = 0; i < 60; i++) {
+            seeded.add(String.format("scroll-%03d", i * 2));
+        }
+        productRepository.saveAll(seeded.stream()
+                .map(title -> new ProductEntity(title, "desc", 1))
+                .collect(Collectors.toList()));
+
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            var inserts = executor.submit(() -> {
+                for (int i = 0; i < 60; i++) {
+                    productController.addProduct(new AddProductDto(String.format("scroll-%03d", i * 2 + 1), "desc", 1));
+                }
+            });
+
+            var seen = new ArrayList<String>();
+            String after = null;
+            do {
+                var page = productController.scrollProducts("title_asc", after, 7);
+                page.products.stream()
+                        .map(p -> p.title)
+                        .filter(title -> title.startsWith("scroll-"))
+                        .forEach(seen::add);
+                after = page.next;
+            } while (after != null);
+            inserts.get();
+
+            Assertions.assertEquals(seen.stream().distinct().count(), seen.size());
+            Assertions.assertEquals(seen.stream().sorted().collect(Collectors.toList()), seen);
+            Assertions.assertTrue(seen.containsAll(seeded));
+        }
+        finally {
+            executor.shutdown();
+            productRepository.deleteAll(productRepository.findAll().stream()
+                    .filter(p -> p.title != null && p.title.startsWith("scroll-"))
+                    .collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    @Order(9)
+    void getProduct_ReadsThroughCacheAndSeesStockChanges() {
+        var cache = cacheManager.getCache(ProductRepository.PRODUCTS_CACHE);
+
+        productController.getProduct("Este");
+        Assertions.assertNotNull(cache.get("Este"));
+
+        productController.sellProductStock(new ProductSellStockDto("Este", 10));
+
+        Assertions.assertEquals(40, productController.getProduct("Este").quantity);
+    }
+
+    @Test
+    @Order(10)
+    void getAllProducts_PublishesSloBucketsAndRepositoryTimer() {
+        productController.getAllProducts("title_asc", 0, 10);
+
+        var snapshot = meterRegistry.get("product.getall.time").timer().takeSnapshot();
+        Assertions.assertTrue(Arrays.stream(snapshot.histogramCounts())
+                .anyMatch(bucket -> bucket.bucket(TimeUnit.MILLISECONDS) == 250));
+
+        var repositoryTimer = meterRegistry.get("spring.data.repository.invocations")
+                .tag("method", "findPage")
+                .timer();
+        Assertions.assertTrue(repositoryTimer.count() > 0);
+    }
+
+    @Test
+    @Order(11)
+    void searchProducts_MatchesPrefixCaseInsensitiveAndText() {
+        var byPrefix = productController.searchProducts("eS", "prefix", "title_asc", 0, 10);
+        Assertions.assertTrue(byPrefix.stream().anyMatch(p -> p.title.equals("Este")));
+
+        var byText = productController.searchProducts("sigur", "text", "", 0, 10);
+        Assertions.assertTrue(byText.stream().anyMatch(p -> p.title.equals("Este")));
+    }
+
+    @Test
+    @Order(12)
+    void getAllProductFields_ProjectsInMongo() {
+        var res = productController.getAllProductFields("title_asc", 0, 10, "id,title");
+
+        Assertions.assertFalse(res.isEmpty());
+        for (var row : res) {
+            Assertions.assertEquals(List.of("id", "title"), List.copyOf(row.keySet()));
+            Assertions.assertNotNull(productRepository.findById((String) row.get("id")).orElse(null));
+        }
+    }
 }
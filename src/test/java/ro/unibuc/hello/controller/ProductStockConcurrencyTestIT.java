@@ -0,0 +1,248 @@
+package ro.unibuc.hello.controller;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import ro.unibuc.hello.data.ProductEntity;
+import ro.unibuc.hello.data.ProductRepository;
+import ro.unibuc.hello.data.ReservationRepository;
+import ro.unibuc.hello.dto.AddProductDto;
+import ro.unibuc.hello.dto.ProductAddStockDto;
+import ro.unibuc.hello.dto.ProductReserveStockDto;
+import ro.unibuc.hello.dto.ProductSellStockDto;
+import ro.unibuc.hello.dto.StockMovementDto;
+import ro.unibuc.hello.exception.BadRequestException;
+import ro.unibuc.hello.exception.ConflictException;
+import ro.unibuc.hello.reservation.ReservationSweeper;
+import ro.unibuc.hello.stock.StockWriteBehind;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@SpringBootTest
+@Testcontainers
+public class ProductStockConcurrencyTestIT {
+
+    private static final int THREADS = 16;
+
+    @Container
+    static final GenericContainer<?> mongo = new GenericContainer<>(DockerImageName.parse("mongo:5.0.2"))
+            .withExposedPorts(27017);
+
+    @DynamicPropertySource
+    static void mongoProperties(DynamicPropertyRegistry registry) {
+        registry.add("mongodb.connection.url", () -> "mongodb://" + mongo.getHost() + ":" + mongo.getMappedPort(27017));
+    }
+
+    @Autowired
+    ProductController productController;
+
+    @Autowired
+    ProductRepository productRepository;
+
+    @Autowired
+    ReservationRepository reservationRepository;
+
+    @Autowired
+    ReservationSweeper reservationSweeper;
+
+    @Autowired
+    StockWriteBehind stockWriteBehind;
+
+    @BeforeEach
+    public void setUp() {
+        productRepository.deleteAll();
+        reservationRepository.deleteAll();
+        productRepository.save(new ProductEntity("Hot", "hot product", 1000));
+    }
+
+    @Test
+    void concurrentSupplyAndSell_LosesNoUpdates() throws Exception {
+        var tasks = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < THREADS; i++) {
+            var supplier = i % 2 == 0;
+            tasks.add(() -> {
+                for (int j = 0; j < 100; j++) {
+                    if (supplier) {
+                        productController.addProductStock(new ProductAddStockDto("Hot", 2));
+                    }
+                    else {
+                        productController.sellProductStock(new ProductSellStockDto("Hot", 1));
+                    }
+                }
+                return null;
+            });
+        }
+
+        runConcurrently(tasks);
+
+        // 8 suppliers * 100 * 2 added, 8 sellers * 100 * 1 sold
+        Assertions.assertEquals(1000 + 1600 - 800, productRepository.findByTitle("Hot").quantity);
+    }
+
+    @Test
+    void concurrentSells_NeverOversell() throws Exception {
+        var sold = new AtomicInteger();
+        var rejected = new AtomicInteger();
+        var tasks = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < THREADS; i++) {
+            tasks.add(() -> {
+                for (int j = 0; j < 100; j++) {
+                    try {
+                        productController.sellProductStock(new ProductSellStockDto("Hot", 1));
+                        sold.incrementAndGet();
+                    }
+                    catch (BadRequestException e) {
+                        rejected.incrementAndGet();
+                    }
+                }
+                return null;
+            });
+        }
+
+        runConcurrently(tasks);
+
+        Assertions.assertEquals(1000, sold.get());
+        Assertions.assertEquals(THREADS * 100 - 1000, rejected.get());
+        Assertions.assertEquals(0, productRepository.findByTitle("Hot").quantity);
+    }
+
+    @Test
+    void concurrentSells_WriteBehind_NeverOversell() throws Exception {
+        var sold = new AtomicInteger();
+        var tasks = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < THREADS; i++) {
+            tasks.add(() -> {
+                for (int j = 0; j < 100; j++) {
+                    try {
+                        productController.sellProductStock(new ProductSellStockDto("Hot", 1));
+                        sold.incrementAndGet();
+                    }
+                    catch (BadRequestException e) {
+                        // out of stock
+                    }
+                }
+                return null;
+            });
+        }
+
+        ReflectionTestUtils.setField(stockWriteBehind, "enabled", true);
+        try {
+            runConcurrently(tasks);
+            stockWriteBehind.flush();
+        }
+        finally {
+            ReflectionTestUtils.setField(stockWriteBehind, "enabled", false);
+            // the accumulator is idle now, so this drops it
+            stockWriteBehind.flush();
+        }
+
+        Assertions.assertEquals(1000, sold.get());
+        Assertions.assertEquals(0, productRepository.findQuantities(Arrays.asList("Hot")).get("Hot"));
+    }
+
+    @Test
+    void concurrentReservations_NeverHoldMoreThanStock() throws Exception {
+        var held = new AtomicInteger();
+        var tasks = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < THREADS; i++) {
+            tasks.add(() -> {
+                for (int j = 0; j < 100; j++) {
+                    try {
+                        productController.reserveProductStock(new ProductReserveStockDto("Hot", 1));
+                        held.incrementAndGet();
+                    }
+                    catch (BadRequestException e) {
+                        // out of stock
+                    }
+                }
+                return null;
+            });
+        }
+
+        runConcurrently(tasks);
+
+        Assertions.assertEquals(1000, held.get());
+        Assertions.assertEquals(1000, reservationRepository.count());
+        Assertions.assertEquals(0, productRepository.findByTitle("Hot").quantity);
+    }
+
+    @Test
+    void expiredReservation_IsReleasedOnce() {
+        var reservation = productController.reserveProductStock(new ProductReserveStockDto("Hot", 10));
+        var entity = reservationRepository.findById(reservation.id).orElseThrow();
+        entity.expiresAt = Instant.now().minusSeconds(1);
+        reservationRepository.save(entity);
+
+        reservationSweeper.sweep();
+        reservationSweeper.sweep();
+
+        Assertions.assertEquals(1000, productRepository.findByTitle("Hot").quantity);
+        Assertions.assertThrows(ConflictException.class, () -> productController.confirmReservation(reservation.id));
+    }
+
+    @Test
+    void applyStockMovements_ReportsPerItem() {
+        productRepository.save(new ProductEntity("Cold", "cold product", 1));
+
+        var res = productController.applyStockMovements(Arrays.asList(
+                new StockMovementDto("sell", "Hot", 600),
+                new StockMovementDto("supply", "Hot", 100),
+                new StockMovementDto("sell", "Cold", 2),
+                new StockMovementDto("supply", "Missing", 1)));
+
+        Assertions.assertEquals("applied", res.get(0).status);
+        Assertions.assertEquals("applied", res.get(1).status);
+        Assertions.assertEquals("insufficient stock", res.get(2).status);
+        Assertions.assertEquals("not found", res.get(3).status);
+        Assertions.assertEquals(500, productRepository.findByTitle("Hot").quantity);
+        Assertions.assertEquals(1, productRepository.findByTitle("Cold").quantity);
+    }
+
+    @Test
+    void addProduct_ConflictsOnDuplicateTitle() {
+        try {
+            productController.addProduct(new AddProductDto("Hot", "again", 1));
+            Assertions.fail();
+        }
+        catch (ConflictException e) {
+            Assertions.assertEquals(1, productRepository.findAll().stream().filter(p -> p.title.equals("Hot")).count());
+        }
+    }
+
+    private static void runConcurrently(ArrayList<Callable<Void>> tasks) throws Exception {
+        var executor = Executors.newFixedThreadPool(tasks.size());
+        var start = new CountDownLatch(1);
+        try {
+            var futures = new ArrayList<Future<Void>>();
+            for (var task : tasks) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return task.call();
+                }));
+            }
+            start.countDown();
+            for (var future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package ro.unibuc.hello.stock;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+import ro.unibuc.hello.data.ProductRepository;
+import ro.unibuc.hello.data.StockDeltaOutcome;
+import ro.unibuc.hello.etag.CatalogVersion;
+import ro.unibuc.hello.metrics.ProductMetrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class StockJournalTest {
+
+    // length + sequence + timestamp + delta + title length + crc, plus a one-byte title
+    private static final int RECORD_SIZE = 4 + 8 + 8 + 4 + 2 + 4 + 1;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void open_ReturnsOnlyRecordsAboveTheCheckpoint() throws IOException {
+        var journal = new StockJournal(directory, 4096, true);
+        Assertions.assertTrue(journal.open().isEmpty());
+        journal.append("a", 1);
+        journal.append("b", -2);
+        var last = journal.append("a", 3);
+        journal.awaitDurable(last);
+        journal.acknowledge(2);
+        journal.close();
+
+        var reopened = new StockJournal(directory, 4096, true);
+        var entries = reopened.open();
+        reopened.close();
+
+        Assertions.assertEquals(1, entries.size());
+        Assertions.assertEquals(3, entries.get(0).sequence);
+        Assertions.assertEquals("a", entries.get(0).title);
+        Assertions.assertEquals(3, entries.get(0).delta);
+        Assertions.assertEquals(journal.id(), reopened.id());
+        Assertions.assertEquals(3, reopened.lastSequence());
+    }
+
+    @Test
+    void open_StopsAtARecordWithABadChecksum() throws IOException {
+        var journal = new StockJournal(directory, 4096, true);
+        journal.open();
+        journal.append("a", 1);
+        journal.append("b", 2);
+        journal.append("c", 3);
+        journal.close();
+
+        // flip a byte of the second record's delta, as a crash half way through writing it would leave it
+        try (var channel = FileChannel.open(segments().get(0), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var delta = ByteBuffer.allocate(4);
+            channel.read(delta, RECORD_SIZE + 20);
+            delta.put(0, (byte) (delta.get(0) ^ 0x7F)).rewind();
+            channel.write(delta, RECORD_SIZE + 20);
+        }
+
+        var reopened = new StockJournal(directory, 4096, true);
+        var entries = reopened.open();
+        reopened.close();
+
+        Assertions.assertEquals(List.of("a"), entries.stream().map(entry -> entry.title).toList());
+    }
+
+    @Test
+    void open_StopsAtATornLength() throws IOException {
+        var journal = new StockJournal(directory, 4096, true);
+        journal.open();
+        journal.append("a", 1);
+        journal.append("b", 2);
+        journal.close();
+
+        // a length pointing past the end of the segment
+        try (var channel = FileChannel.open(segments().get(0), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, 1 << 20), RECORD_SIZE);
+        }
+
+        var reopened = new StockJournal(directory, 4096, true);
+        var entries = reopened.open();
+        reopened.close();
+
+        Assertions.assertEquals(1, entries.size());
+        Assertions.assertEquals(1, entries.get(0).sequence);
+    }
+
+    @Test
+    void acknowledge_DeletesOnlyTheSegmentsItCovers() throws IOException {
+        // room for three records and the end marker
+        var journal = new StockJournal(directory, 3 * RECORD_SIZE + 4, true);
+        journal.open();
+        long last = 0;
+        for (int i = 0; i < 7; i++) {
+            last = journal.append("a", 1);
+        }
+        journal.awaitDurable(last);
+        Assertions.assertEquals(List.of(1L, 4L, 7L), segmentStarts());
+
+        // the first segment ends at 3; the second still holds 4 and 5 is not acknowledged
+        journal.acknowledge(4);
+        Assertions.assertEquals(List.of(4L, 7L), segmentStarts());
+
+        journal.acknowledge(6);
+        Assertions.assertEquals(List.of(7L), segmentStarts());
+        journal.close();
+
+        var reopened = new StockJournal(directory, 3 * RECORD_SIZE + 4, true);
+        var entries = reopened.open();
+        reopened.close();
+        Assertions.assertEquals(List.of(7L), entries.stream().map(entry -> entry.sequence).toList());
+    }
+
+    @Test
+    void append_RefusesRecordsOnceClosed() throws IOException {
+        var journal = new StockJournal(directory, 4096, true);
+        journal.open();
+        var sequence = journal.append("a", 1);
+        journal.close();
+
+        // everything appended before the close was forced by it
+        journal.awaitDurable(sequence);
+        Assertions.assertThrows(IllegalStateException.class, () -> journal.append("a", 1));
+        Assertions.assertThrows(IllegalStateException.class, () -> journal.awaitDurable(sequence + 1));
+    }
+
+    @Test
+    void open_WithoutFsyncStartsNoSyncer() throws IOException {
+        var journal = new StockJournal(directory, 4096, false);
+        journal.open();
+        var sequence = journal.append("a", 1);
+
+        journal.awaitDurable(sequence);
+        Assertions.assertNull(ReflectionTestUtils.getField(journal, "syncer"));
+        journal.close();
+
+        var reopened = new StockJournal(directory, 4096, false);
+        Assertions.assertEquals(1, reopened.open().size());
+        reopened.close();
+    }
+
+    @Test
+    void writeBehindReplay_SkipsRecordsAlreadyStampedOnTheProduct() throws IOException {
+        var journalDirectory = directory.resolve("journal");
+        var journal = new StockJournal(journalDirectory, 4096, true);
+        journal.open();
+        journal.append("a", 1);
+        journal.append("a", 2);
+        journal.append("b", -1);
+        journal.append("a", 3);
+        journal.close();
+        // the same records as a crash right before the first replay's acknowledgement would leave them
+        var crashed = Files.createDirectory(directory.resolve("crashed"));
+        try (var files = Files.list(journalDirectory)) {
+            for (var file : files.toList()) {
+                Files.copy(file, crashed.resolve(file.getFileName()));
+            }
+        }
+
+        var repository = mock(ProductRepository.class);
+        when(repository.applyStockDeltas(anyMap(), anyString(), anyLong()))
+                .thenReturn(Map.of("a", StockDeltaOutcome.APPLIED));
+        // a flush of sequences up to 3 reached both products before the crash
+        when(repository.findJournalSequences(anyCollection(), eq(journal.id())))
+                .thenReturn(Map.of("a", 3L, "b", 3L));
+
+        replay(repository, journalDirectory);
+
+        verify(repository).applyStockDeltas(Map.of("a", 3), journal.id(), 4);
+
+        // replaying again once the rest landed applies nothing twice
+        when(repository.findJournalSequences(anyCollection(), eq(journal.id())))
+                .thenReturn(Map.of("a", 4L, "b", 3L));
+
+        replay(repository, crashed);
+
+        verify(repository).applyStockDeltas(Map.of(), journal.id(), 4);
+    }
+
+    private void replay(ProductRepository repository, Path journalDirectory) {
+        var writeBehind = new StockWriteBehind(repository, mock(ProductMetrics.class), new CatalogVersion());
+        ReflectionTestUtils.setField(writeBehind, "journalDirectory", journalDirectory.toString());
+        ReflectionTestUtils.setField(writeBehind, "journalSegmentSize", DataSize.ofKilobytes(4));
+        ReflectionTestUtils.setField(writeBehind, "journalFsync", true);
+        ReflectionTestUtils.invokeMethod(writeBehind, "openJournal");
+        ((StockJournal) ReflectionTestUtils.getField(writeBehind, "journal")).close();
+    }
+
+    private List<Path> segments() throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".journal")).sorted().toList();
+        }
+    }
+
+    private List<Long> segmentStarts() throws IOException {
+        return segments().stream()
+                .map(path -> path.getFileName().toString())
+                .map(name -> Long.parseLong(name.substring(0, name.indexOf('.'))))
+                .toList();
+    }
+}
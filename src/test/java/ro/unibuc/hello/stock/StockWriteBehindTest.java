@@ -0,0 +1,80 @@
+package ro.unibuc.hello.stock;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.BulkOperationException;
+import ro.unibuc.hello.data.ProductRepository;
+import ro.unibuc.hello.data.StockDeltaOutcome;
+import ro.unibuc.hello.etag.CatalogVersion;
+import ro.unibuc.hello.metrics.ProductMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.*;
+
+class StockWriteBehindTest {
+
+    ProductRepository repository = mock(ProductRepository.class);
+
+    StockWriteBehind writeBehind = new StockWriteBehind(repository, mock(ProductMetrics.class), new CatalogVersion());
+
+    @Test
+    void flush_AfterAPartialBulkFailureRetriesOnlyTheFailedTitle() {
+        when(repository.findQuantities(anyCollection())).thenReturn(Map.of("a", 10, "b", 10));
+        writeBehind.supply("a", 1);
+        writeBehind.supply("b", 2);
+
+        when(repository.applyStockDeltas(anyMap()))
+                .thenAnswer(invocation -> {
+                    Map<String, Integer> deltas = invocation.getArgument(0);
+                    var index = new ArrayList<>(deltas.keySet()).indexOf("b");
+                    throw bulkFailure(index);
+                })
+                .thenReturn(Map.of("b", StockDeltaOutcome.APPLIED));
+        writeBehind.flush();
+        writeBehind.flush();
+
+        verify(repository).applyStockDeltas(Map.of("a", 1, "b", 2));
+        verify(repository).applyStockDeltas(Map.of("b", 2));
+    }
+
+    @Test
+    void flush_WithoutAJournalRetriesEveryTitleWhenTheOutcomeIsUnknown() {
+        when(repository.findQuantities(anyCollection())).thenReturn(Map.of("a", 10, "b", 10));
+        writeBehind.supply("a", 1);
+        writeBehind.supply("b", 2);
+
+        when(repository.applyStockDeltas(anyMap()))
+                .thenThrow(new DataAccessResourceFailureException("timed out"))
+                .thenReturn(Map.of("a", StockDeltaOutcome.APPLIED, "b", StockDeltaOutcome.APPLIED));
+        writeBehind.flush();
+        writeBehind.flush();
+
+        verify(repository, times(2)).applyStockDeltas(Map.of("a", 1, "b", 2));
+    }
+
+    @Test
+    void supply_RefusesStockAboveTheLargestQuantity() {
+        when(repository.findQuantities(anyCollection())).thenReturn(Map.of("a", Integer.MAX_VALUE - 1));
+
+        Assertions.assertEquals(StockDeltaOutcome.APPLIED, writeBehind.supply("a", 1));
+        Assertions.assertEquals(StockDeltaOutcome.QUANTITY_OVERFLOW, writeBehind.supply("a", 1));
+    }
+
+    private static BulkOperationException bulkFailure(int index) {
+        var error = new BulkWriteError(2, "failed", new BsonDocument(), index);
+        return new BulkOperationException("bulk write failed", new MongoBulkWriteException(
+                BulkWriteResult.unacknowledged(), List.of(error), null, new ServerAddress(), Set.of()));
+    }
+}
@@ -0,0 +1,198 @@
+package ro.unibuc.hello.sync;
+
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import org.bson.BsonDocument;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.test.util.ReflectionTestUtils;
+import ro.unibuc.hello.data.ProductEntity;
+import ro.unibuc.hello.data.ProductRepository;
+import ro.unibuc.hello.etag.CatalogVersion;
+import ro.unibuc.hello.metrics.ProductMetrics;
+import ro.unibuc.hello.search.ProductAutocompleteIndex;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ProductChangeStreamTest {
+
+    MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+
+    ConcurrentMapCacheManager cacheManager = new ConcurrentMapCacheManager(ProductRepository.PRODUCTS_CACHE);
+
+    ProductAutocompleteIndex autocompleteIndex = mock(ProductAutocompleteIndex.class);
+
+    ProductMetrics productMetrics = mock(ProductMetrics.class);
+
+    CatalogVersion catalogVersion = mock(CatalogVersion.class);
+
+    ProductChangeStream changeStream = new ProductChangeStream(mongoTemplate, cacheManager, autocompleteIndex,
+            productMetrics, catalogVersion);
+
+    @BeforeEach
+    void setUp() {
+        var converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+        converter.afterPropertiesSet();
+        when(mongoTemplate.getConverter()).thenReturn(converter);
+        cacheManager.getCache(ProductRepository.PRODUCTS_CACHE).put("title", "cached");
+        cacheManager.getCache(ProductRepository.PRODUCTS_CACHE).put("other", "cached");
+    }
+
+    @Test
+    void apply_InsertEvictsTheTitleAndCountsAChangeAfterTheCount() {
+        ReflectionTestUtils.setField(changeStream, "catalogCountedAt", new BsonTimestamp(10, 0));
+
+        Assertions.assertTrue(changeStream.apply(change("insert", new BsonObjectId(), product("title", 5), 11)));
+
+        Assertions.assertNull(cacheManager.getCache(ProductRepository.PRODUCTS_CACHE).get("title"));
+        Assertions.assertNotNull(cacheManager.getCache(ProductRepository.PRODUCTS_CACHE).get("other"));
+        verify(autocompleteIndex).add(any(ProductEntity.class));
+        verify(autocompleteIndex).setQuantity("title", 5);
+        verify(catalogVersion).changed("title");
+        verify(productMetrics).catalogChanged(1);
+    }
+
+    @Test
+    void apply_InsertAtOrBeforeTheCountLeavesTheGauge() {
+        ReflectionTestUtils.setField(changeStream, "catalogCountedAt", new BsonTimestamp(10, 0));
+
+        changeStream.apply(change("insert", new BsonObjectId(), product("title", 5), 10));
+
+        verify(autocompleteIndex).setQuantity("title", 5);
+        verify(productMetrics, never()).catalogChanged(anyLong());
+    }
+
+    @Test
+    void apply_UpdateNeverCounts() {
+        changeStream.apply(change("update", new BsonObjectId(), product("title", 7), 11));
+
+        Assertions.assertNull(cacheManager.getCache(ProductRepository.PRODUCTS_CACHE).get("title"));
+        verify(autocompleteIndex).setQuantity("title", 7);
+        verify(productMetrics, never()).catalogChanged(anyLong());
+    }
+
+    @Test
+    void apply_UpdateOfADeletedProductIsSkipped() {
+        Assertions.assertTrue(changeStream.apply(change("update", new BsonObjectId(), null, 11)));
+
+        Assertions.assertNotNull(cacheManager.getCache(ProductRepository.PRODUCTS_CACHE).get("title"));
+        verifyNoInteractions(autocompleteIndex, catalogVersion, productMetrics);
+    }
+
+    @Test
+    void apply_DeleteByObjectIdClearsTheCache() {
+        var id = new ObjectId();
+
+        Assertions.assertTrue(changeStream.apply(change("delete", new BsonObjectId(id), null, 11)));
+
+        Assertions.assertNull(cacheManager.getCache(ProductRepository.PRODUCTS_CACHE).get("other"));
+        verify(autocompleteIndex).removeById(id.toHexString());
+        verify(productMetrics).catalogChanged(-1);
+        verify(catalogVersion).changedAll();
+    }
+
+    @Test
+    void apply_DeleteByStringId() {
+        ReflectionTestUtils.setField(changeStream, "catalogCountedAt", new BsonTimestamp(12, 0));
+
+        changeStream.apply(change("delete", new BsonString("abc"), null, 11));
+
+        verify(autocompleteIndex).removeById("abc");
+        verify(productMetrics, never()).catalogChanged(anyLong());
+    }
+
+    @Test
+    void apply_InvalidateReloadsAndEndsTheStream() {
+        ReflectionTestUtils.setField(changeStream, "resumeToken", token("before"));
+
+        Assertions.assertFalse(changeStream.apply(change("invalidate", null, null, 11)));
+
+        Assertions.assertNull(ReflectionTestUtils.getField(changeStream, "resumeToken"));
+        Assertions.assertNull(cacheManager.getCache(ProductRepository.PRODUCTS_CACHE).get("other"));
+        verify(autocompleteIndex).rebuild();
+        verify(productMetrics).refreshCatalogSize();
+        verify(catalogVersion).changedAll();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void follow_ReopensAfterAnInvalidateWithStartAfter() {
+        MongoCollection<Document> offsets = mock(MongoCollection.class);
+        MongoCollection<BsonDocument> offsetsAsBson = mock(MongoCollection.class);
+        FindIterable<BsonDocument> noCheckpoint = mock(FindIterable.class);
+        when(mongoTemplate.getCollection(ProductChangeStream.OFFSETS_COLLECTION)).thenReturn(offsets);
+        when(offsets.withDocumentClass(BsonDocument.class)).thenReturn(offsetsAsBson);
+        when(offsetsAsBson.find(any(Bson.class))).thenReturn(noCheckpoint);
+
+        var database = mock(MongoDatabase.class);
+        when(mongoTemplate.getDb()).thenReturn(database);
+        when(database.runCommand(any(Bson.class), eq(BsonDocument.class))).thenReturn(new BsonDocument());
+
+        MongoCollection<Document> products = mock(MongoCollection.class);
+        ChangeStreamIterable<Document> stream = mock(ChangeStreamIterable.class, RETURNS_SELF);
+        MongoChangeStreamCursor<ChangeStreamDocument<Document>> invalidated = mock(MongoChangeStreamCursor.class);
+        MongoChangeStreamCursor<ChangeStreamDocument<Document>> reopened = mock(MongoChangeStreamCursor.class);
+        when(mongoTemplate.getCollectionName(ProductEntity.class)).thenReturn("products");
+        when(mongoTemplate.getCollection("products")).thenReturn(products);
+        when(products.watch(anyList())).thenReturn(stream);
+        when(stream.cursor()).thenReturn(invalidated, reopened);
+
+        var invalidate = change("invalidate", null, null, 11);
+        when(invalidated.tryNext()).thenReturn(invalidate);
+        // the server's cursor would hand out the invalidate's token, which cannot be resumed after
+        when(invalidated.getResumeToken()).thenReturn(invalidate.getResumeToken());
+        when(reopened.tryNext()).thenAnswer(invocation -> {
+            ReflectionTestUtils.setField(changeStream, "running", false);
+            return null;
+        });
+        when(reopened.getResumeToken()).thenReturn(token("after"));
+
+        ReflectionTestUtils.setField(changeStream, "running", true);
+        ReflectionTestUtils.invokeMethod(changeStream, "follow");
+
+        verify(stream).startAfter(invalidate.getResumeToken());
+        verify(stream, never()).resumeAfter(any());
+        verify(stream, times(2)).maxAwaitTime(1, TimeUnit.SECONDS);
+        verify(invalidated, times(1)).tryNext();
+        verify(autocompleteIndex).rebuild();
+        Assertions.assertEquals(token("after"), ReflectionTestUtils.getField(changeStream, "resumeToken"));
+    }
+
+    private static Document product(String title, int quantity) {
+        return new Document("_id", new ObjectId()).append("title", title).append("quantity", quantity);
+    }
+
+    private static BsonDocument token(String data) {
+        return new BsonDocument("_data", new BsonString(data));
+    }
+
+    private static ChangeStreamDocument<Document> change(String operationType, BsonValue id, Document fullDocument,
+                                                         int clusterTime) {
+        return new ChangeStreamDocument<>(operationType, token(operationType + clusterTime), null, null,
+                fullDocument, null, id == null ? null : new BsonDocument("_id", id),
+                new BsonTimestamp(clusterTime, 0), null, null, null, null, null, null);
+    }
+}